@@ -0,0 +1,58 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitmapBenchmark {
+    @Param({"64x64", "255x64", "65536x512"})
+    public String geometry;
+
+    @Param({"0", "50", "90", "99"})
+    public int fillPercent;
+
+    private Bitmap bitmap;
+
+    @Setup
+    public void setup() {
+        var ioSystem = new MemoryIOSystem(Geometry.length(geometry), Geometry.blockSize(geometry));
+        var superblock = new Superblock(ioSystem);
+        superblock.format();
+        bitmap = new Bitmap(ioSystem, superblock);
+
+        int dataBlocks = Geometry.length(geometry) - superblock.getFirstDataBlock();
+        int taken = dataBlocks * fillPercent / 100;
+        for (int i = 0; i < taken; i++) {
+            bitmap.setBlockIndexTaken(bitmap.getFreeBlockIndex());
+        }
+    }
+
+    @Benchmark
+    public int getFreeBlockIndex() {
+        return bitmap.getFreeBlockIndex();
+    }
+
+    @Benchmark
+    public int allocateAndFree() {
+        int blockIndex = bitmap.getFreeBlockIndex();
+        if (blockIndex != FileSystem.NOT_ALLOCATED_INDEX) {
+            bitmap.setBlockIndexTaken(blockIndex);
+            bitmap.setBlockIndexFree(blockIndex);
+        }
+        return blockIndex;
+    }
+}
@@ -0,0 +1,75 @@
+import array.UnsignedByteArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// every thread works on its own file of one shared FileSystem
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ConcurrentBenchmark {
+    @Param({"4096x512", "4096x4096"})
+    public String geometry;
+
+    @Param({"16", "256"})
+    public int chunk;
+
+    private FileSystem fileSystem;
+    private AtomicInteger files;
+
+    @Setup
+    public void setup() {
+        fileSystem = new FileSystem(Geometry.length(geometry), Geometry.blockSize(geometry));
+        files = new AtomicInteger();
+    }
+
+    @State(Scope.Thread)
+    public static class OpenFile {
+        private int index;
+        private int fileSize;
+        private UnsignedByteArray data;
+        private SplittableRandom random;
+
+        @Setup
+        public void setup(ConcurrentBenchmark benchmark) {
+            var name = new UnsignedByteArray(String.format("t%02d", benchmark.files.getAndIncrement()));
+            benchmark.fileSystem.create(name);
+            index = benchmark.fileSystem.open(name);
+
+            fileSize = 16 * Geometry.blockSize(benchmark.geometry);
+            data = new UnsignedByteArray(fileSize);
+            data.fill('x');
+            benchmark.fileSystem.write(index, data, fileSize);
+            random = new SplittableRandom(index);
+        }
+    }
+
+    @Benchmark
+    public int randomRead(OpenFile file) {
+        fileSystem.lseek(file.index, file.random.nextInt(file.fileSize - chunk + 1));
+        return fileSystem.read(file.index, file.data, chunk);
+    }
+
+    @Benchmark
+    public int randomWrite(OpenFile file) {
+        fileSystem.lseek(file.index, file.random.nextInt(file.fileSize - chunk + 1));
+        return fileSystem.write(file.index, file.data, chunk);
+    }
+}
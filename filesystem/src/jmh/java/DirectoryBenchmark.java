@@ -0,0 +1,67 @@
+import array.UnsignedByteArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectoryBenchmark {
+    @Param({"64x64", "255x512"})
+    public String geometry;
+
+    // files already in the directory besides the one being churned
+    @Param({"0", "8"})
+    public int files;
+
+    private FileSystem fileSystem;
+    private UnsignedByteArray name;
+
+    @Setup
+    public void setup() {
+        fileSystem = new FileSystem(Geometry.length(geometry), Geometry.blockSize(geometry));
+        for (int i = 0; i < files; i++) {
+            var fileName = new UnsignedByteArray(String.format("d%02d", i));
+            fileSystem.create(fileName);
+            int index = fileSystem.open(fileName);
+            fileSystem.write(index, fileName, 3);
+            fileSystem.close(index);
+        }
+        name = new UnsignedByteArray("zz");
+    }
+
+    @Benchmark
+    public int createOpenCloseDestroy() {
+        fileSystem.create(name);
+        int index = fileSystem.open(name);
+        fileSystem.close(index);
+        fileSystem.destroy(name);
+        return index;
+    }
+
+    @Benchmark
+    public List<Pair<String, Integer>> directory() {
+        return fileSystem.directory();
+    }
+
+    @Benchmark
+    public long entries() {
+        try (var entries = fileSystem.entries(new UnsignedByteArray(""))) {
+            return entries.count();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+// "<blocks>x<block size>" strings used as JMH parameters
+final class Geometry {
+    private Geometry() {
+    }
+
+    static int length(String geometry) {
+        return Integer.parseInt(geometry.substring(0, geometry.indexOf('x')));
+    }
+
+    static int blockSize(String geometry) {
+        return Integer.parseInt(geometry.substring(geometry.indexOf('x') + 1));
+    }
+}
@@ -0,0 +1,107 @@
+import array.UnsignedByteArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IOSystemBenchmark {
+    @Param({"64x64", "255x512", "255x4096"})
+    public String geometry;
+
+    @Param({"memory", "mapped", "channel", "async"})
+    public String backend;
+
+    // blocks moved by one readBlocks or writeBlocks call
+    private static final int RUN_BLOCKS = 16;
+
+    private IOSystem ioSystem;
+    private Path image;
+    private UnsignedByteArray block;
+    private UnsignedByteArray run;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        int length = Geometry.length(geometry);
+        int blockSize = Geometry.blockSize(geometry);
+
+        if (backend.equals("memory")) {
+            ioSystem = new MemoryIOSystem(length, blockSize);
+        } else {
+            image = Files.createTempFile("iosystem", ".img");
+            Files.delete(image);
+            if (backend.equals("mapped")) {
+                ioSystem = new MappedIOSystem(image, length, blockSize);
+            } else if (backend.equals("channel")) {
+                ioSystem = new FileChannelIOSystem(image, length, blockSize);
+            } else {
+                ioSystem = new AsyncFileChannelIOSystem(image, length, blockSize);
+            }
+        }
+        block = new UnsignedByteArray(blockSize);
+        block.fill(0x5a);
+        run = new UnsignedByteArray(RUN_BLOCKS * blockSize);
+        run.fill(0x5a);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (ioSystem instanceof Closeable) {
+            ((Closeable) ioSystem).close();
+            Files.deleteIfExists(image);
+        }
+    }
+
+    @Benchmark
+    public UnsignedByteArray readBlock() {
+        ioSystem.readBlock(nextBlock(), block);
+        return block;
+    }
+
+    @Benchmark
+    public void writeBlock() {
+        ioSystem.writeBlock(nextBlock(), block);
+    }
+
+    @Benchmark
+    public UnsignedByteArray readBlocks() {
+        ioSystem.readBlocks(nextRun(), RUN_BLOCKS, run);
+        return run;
+    }
+
+    @Benchmark
+    public void writeBlocks() {
+        ioSystem.writeBlocks(nextRun(), RUN_BLOCKS, run);
+    }
+
+    private int nextRun() {
+        int runs = ioSystem.getLength() / RUN_BLOCKS;
+        next = next + 1 < runs ? next + 1 : 0;
+        return next * RUN_BLOCKS;
+    }
+
+    private int nextBlock() {
+        next = next + 1 < ioSystem.getLength() ? next + 1 : 0;
+        return next;
+    }
+}
@@ -0,0 +1,71 @@
+import array.UnsignedByteArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceBenchmark {
+    @Param({"64x64", "255x512", "255x4096"})
+    public String geometry;
+
+    private FileSystem fileSystem;
+    private String image;
+    private String export;
+
+    @Setup
+    public void setup() throws IOException {
+        fileSystem = new FileSystem(Geometry.length(geometry), Geometry.blockSize(geometry));
+        for (int i = 0; i < 8; i++) {
+            var name = new UnsignedByteArray(String.format("p%02d", i));
+            fileSystem.create(name);
+            int index = fileSystem.open(name);
+            fileSystem.write(index, name, Geometry.blockSize(geometry) + i);
+            fileSystem.close(index);
+        }
+
+        image = Files.createTempFile("filesystem", ".img").toString();
+        export = Files.createTempFile("filesystem", ".txt").toString();
+        fileSystem.save(image);
+        fileSystem.export(export);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(Path.of(image));
+        Files.deleteIfExists(Path.of(export));
+    }
+
+    @Benchmark
+    public boolean save() {
+        return fileSystem.save(image);
+    }
+
+    @Benchmark
+    public boolean init() {
+        return fileSystem.init(image);
+    }
+
+    @Benchmark
+    public boolean initFromExport() {
+        return fileSystem.init(export);
+    }
+}
@@ -0,0 +1,86 @@
+import array.UnsignedByteArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadWriteBenchmark {
+    @Param({"64x64", "255x512", "255x4096"})
+    public String geometry;
+
+    @Param({"1", "16", "256"})
+    public int chunk;
+
+    private FileSystem fileSystem;
+    private int index;
+    private int fileSize;
+    private int count;
+    private UnsignedByteArray data;
+    private SplittableRandom random;
+
+    @Setup
+    public void setup() {
+        int blockSize = Geometry.blockSize(geometry);
+        fileSystem = new FileSystem(Geometry.length(geometry), blockSize);
+
+        var name = new UnsignedByteArray("rw");
+        fileSystem.create(name);
+        index = fileSystem.open(name);
+
+        // long enough to span several extents' worth of block lookups
+        fileSize = 16 * blockSize;
+        count = Math.min(chunk, fileSize);
+        data = new UnsignedByteArray(fileSize);
+        data.fill('x');
+        fileSystem.write(index, data, fileSize);
+        random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public int sequentialWrite() {
+        fileSystem.lseek(index, 0);
+        int written = 0;
+        while (written + count <= fileSize) {
+            written += fileSystem.write(index, data, count);
+        }
+        return written;
+    }
+
+    @Benchmark
+    public int sequentialRead() {
+        fileSystem.lseek(index, 0);
+        int read = 0;
+        while (read + count <= fileSize) {
+            read += fileSystem.read(index, data, count);
+        }
+        return read;
+    }
+
+    @Benchmark
+    public int randomRead() {
+        fileSystem.lseek(index, random.nextInt(fileSize - count + 1));
+        return fileSystem.read(index, data, count);
+    }
+
+    @Benchmark
+    public int randomWrite() {
+        fileSystem.lseek(index, random.nextInt(fileSize - count + 1));
+        return fileSystem.write(index, data, count);
+    }
+}
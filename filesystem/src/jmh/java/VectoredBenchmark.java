@@ -0,0 +1,86 @@
+import array.UnsignedByteArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// records of a few small fields, written field by field or in one call
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectoredBenchmark {
+    private static final int[] FIELD_SIZES = {8, 4, 16, 100};
+
+    @Param({"255x512", "255x4096"})
+    public String geometry;
+
+    private FileSystem fileSystem;
+    private int index;
+    private int fileSize;
+    private int recordSize;
+    private UnsignedByteArray[] fields;
+    private SplittableRandom random;
+
+    @Setup
+    public void setup() {
+        int blockSize = Geometry.blockSize(geometry);
+        fileSystem = new FileSystem(Geometry.length(geometry), blockSize);
+
+        var name = new UnsignedByteArray("rec");
+        fileSystem.create(name);
+        index = fileSystem.open(name);
+
+        fields = new UnsignedByteArray[FIELD_SIZES.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new UnsignedByteArray(FIELD_SIZES[i]);
+            fields[i].fill('a' + i);
+            recordSize += FIELD_SIZES[i];
+        }
+
+        fileSize = 16 * blockSize / recordSize * recordSize;
+        var data = new UnsignedByteArray(fileSize);
+        fileSystem.write(index, data, fileSize);
+        random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public int writeFields() {
+        fileSystem.lseek(index, random.nextInt(fileSize / recordSize) * recordSize);
+        int written = 0;
+        for (UnsignedByteArray field : fields) {
+            written += fileSystem.write(index, field, field.length());
+        }
+        return written;
+    }
+
+    @Benchmark
+    public int writev() {
+        fileSystem.lseek(index, random.nextInt(fileSize / recordSize) * recordSize);
+        return fileSystem.writev(index, fields);
+    }
+
+    @Benchmark
+    public int readv() {
+        fileSystem.lseek(index, random.nextInt(fileSize / recordSize) * recordSize);
+        return fileSystem.readv(index, fields);
+    }
+
+    @Benchmark
+    public int pread() {
+        return fileSystem.pread(index, fields[3], fields[3].length(),
+                random.nextInt(fileSize / recordSize) * recordSize);
+    }
+}
@@ -0,0 +1,145 @@
+import array.UnsignedByteArray;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+// A disk in a plain file whose runs of blocks can be read and written without waiting: readBlocksAsync and
+// writeBlocksAsync start the I/O and complete their future when it is done, so a caller may have many in flight.
+// The blocking calls start one and wait for it. The array given has to be left alone until the future completes.
+public class AsyncFileChannelIOSystem extends IOSystem implements Closeable {
+    private final AsynchronousFileChannel channel;
+    private final int length;
+    private final int blockSize;
+
+    public AsyncFileChannelIOSystem(Path path, int length, int blockSize) throws IOException {
+        this.length = length;
+        this.blockSize = blockSize;
+        this.channel = AsynchronousFileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            long size = FileChannelIOSystem.checkSize(path, channel.size(), length, blockSize);
+            if (channel.size() == 0) {
+                // the rest of a new disk reads as zeros
+                channel.write(ByteBuffer.allocate(1), size - 1).get();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (Exception e) {
+            channel.close();
+            throw new IOException(e);
+        }
+        trackDirtyBlocks(length);
+    }
+
+    @Override
+    public CompletableFuture<Void> readBlocksAsync(int first, int count, UnsignedByteArray p) {
+        var future = new CompletableFuture<Void>();
+        read(p.asByteBuffer().limit(count * blockSize), (long) first * blockSize, future);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> writeBlocksAsync(int first, int count, UnsignedByteArray p) {
+        var future = new CompletableFuture<Void>();
+        write(p.asByteBuffer().limit(count * blockSize), (long) first * blockSize, future);
+        return future.thenRun(() -> markDirty(first, count));
+    }
+
+    // a short array reads or writes the start of the block only, as on the other devices
+    @Override
+    public void readBlock(int i, UnsignedByteArray p) {
+        var future = new CompletableFuture<Void>();
+        read(p.asByteBuffer(), (long) i * blockSize, future);
+        await(future);
+    }
+
+    @Override
+    public void writeBlock(int i, UnsignedByteArray p) {
+        var future = new CompletableFuture<Void>();
+        write(p.asByteBuffer(), (long) i * blockSize, future);
+        await(future);
+        markDirty(i);
+    }
+
+    @Override
+    public void readBlocks(int first, int count, UnsignedByteArray p) {
+        await(readBlocksAsync(first, count, p));
+    }
+
+    @Override
+    public void writeBlocks(int first, int count, UnsignedByteArray p) {
+        await(writeBlocksAsync(first, count, p));
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public void flush() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    // reads on from where the last read stopped until buffer is full
+    private void read(ByteBuffer buffer, long position, CompletableFuture<Void> future) {
+        channel.read(buffer, position + buffer.position(), null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer read, Void attachment) {
+                if (read < 0) {
+                    future.completeExceptionally(new IOException("Unexpected end of disk at " + position));
+                } else if (buffer.hasRemaining()) {
+                    read(buffer, position, future);
+                } else {
+                    future.complete(null);
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void write(ByteBuffer buffer, long position, CompletableFuture<Void> future) {
+        channel.write(buffer, position + buffer.position(), null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer written, Void attachment) {
+                if (buffer.hasRemaining()) {
+                    write(buffer, position, future);
+                } else {
+                    future.complete(null);
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,313 @@
+import array.UnsignedByteArray;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+// A front to a FileSystem whose calls return at once with a future and run on an executor, so callers never block
+// and a failure completes the future with a FileSystemException instead of a -1, whose getFailure says why.
+// Reads, writes and closes of one open file wait in its own queue, which one task at a time works through,
+// so any number of calls waiting on a file hold no thread. Reads queued back to back over adjacent or overlapping
+// ranges are done as one pread, and writes queued the same way are copied together and done as one pwrite,
+// so the blocks they share are only read or written once.
+public class AsyncFileSystem implements Closeable {
+    private final FileSystem fileSystem;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final Map<Integer, FileQueue> queues;
+    // how far a batch of queued reads or writes may span
+    private static final int MAX_BATCH_BYTES = 1 << 20;
+
+    // threads as the processors have, since operations are short and the cache absorbs most of their I/O
+    public AsyncFileSystem(FileSystem fileSystem) {
+        this(fileSystem, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "file-system-io");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    // the executor stays the caller's to shut down
+    public AsyncFileSystem(FileSystem fileSystem, ExecutorService executor) {
+        this(fileSystem, executor, false);
+    }
+
+    private AsyncFileSystem(FileSystem fileSystem, ExecutorService executor, boolean ownsExecutor) {
+        this.fileSystem = fileSystem;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.queues = new ConcurrentHashMap<>();
+    }
+
+    public CompletableFuture<Void> createAsync(UnsignedByteArray path) {
+        return check(() -> fileSystem.create(path), "cannot create " + path.toAsciiString());
+    }
+
+    public CompletableFuture<Void> mkdirAsync(UnsignedByteArray path) {
+        return check(() -> fileSystem.mkdir(path), "cannot create directory " + path.toAsciiString());
+    }
+
+    public CompletableFuture<Void> destroyAsync(UnsignedByteArray path) {
+        return check(() -> fileSystem.destroy(path), "cannot destroy " + path.toAsciiString());
+    }
+
+    // the index of the open file
+    public CompletableFuture<Integer> openAsync(UnsignedByteArray path) {
+        return supply(() -> {
+            int index = fileSystem.open(path);
+            if (index == -1) {
+                throw failed("cannot open " + path.toAsciiString());
+            }
+            return index;
+        });
+    }
+
+    // after every read and write queued on the file before it
+    public CompletableFuture<Void> closeAsync(int index) {
+        var request = new Request(Request.CLOSE, 0, 0, null);
+        queue(index).submit(request);
+        return request.future.thenApply(n -> null);
+    }
+
+    // the bytes read, fewer than count at the end of the file
+    public CompletableFuture<UnsignedByteArray> readAsync(int index, int pos, int count) {
+        if (count < 0 || pos < 0) {
+            return CompletableFuture.failedFuture(new FileSystemException(
+                    count < 0 ? Failure.NEGATIVE_COUNT : Failure.POSITION_OUT_OF_RANGE,
+                    "cannot read " + count + " bytes at " + pos));
+        }
+        var request = new Request(Request.READ, pos, count, new UnsignedByteArray(count));
+        queue(index).submit(request);
+        return request.future.thenApply(n -> request.data.slice(0, n));
+    }
+
+    // how many bytes were written; a write the disk or the file's extent slots cut short fails with NO_SPACE
+    // or FILE_TOO_LARGE instead, and getBytesTransferred says how much of it was done
+    public CompletableFuture<Integer> writeAsync(int index, int pos, UnsignedByteArray data) {
+        if (pos < 0) {
+            return CompletableFuture.failedFuture(
+                    new FileSystemException(Failure.POSITION_OUT_OF_RANGE, "cannot write at " + pos));
+        }
+        var request = new Request(Request.WRITE, pos, data.length(), data);
+        queue(index).submit(request);
+        return request.future;
+    }
+
+    public CompletableFuture<Void> syncAsync() {
+        return supply(() -> {
+            fileSystem.sync();
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private CompletableFuture<Void> check(Supplier<Boolean> operation, String message) {
+        return supply(() -> {
+            if (!operation.get()) {
+                throw failed(message);
+            }
+            return null;
+        });
+    }
+
+    // the reason comes from the file system, so this has to run on the thread whose call just failed
+    private FileSystemException failed(String message) {
+        return new FileSystemException(fileSystem.lastFailure(), message);
+    }
+
+    private <T> CompletableFuture<T> supply(Operation<T> operation) {
+        var future = new CompletableFuture<T>();
+        executor.execute(() -> {
+            try {
+                future.complete(operation.run());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private FileQueue queue(int index) {
+        return queues.computeIfAbsent(index, FileQueue::new);
+    }
+
+    private interface Operation<T> {
+        T run() throws FileSystemException;
+    }
+
+    private static class Request {
+        static final int READ = 0;
+        static final int WRITE = 1;
+        static final int CLOSE = 2;
+
+        final int kind;
+        final int pos;
+        final int count;
+        final UnsignedByteArray data;
+        // how many bytes were read or written
+        final CompletableFuture<Integer> future;
+
+        Request(int kind, int pos, int count, UnsignedByteArray data) {
+            this.kind = kind;
+            this.pos = pos;
+            this.count = count;
+            this.data = data;
+            this.future = new CompletableFuture<>();
+        }
+
+        int end() {
+            return pos + count;
+        }
+    }
+
+    private class FileQueue {
+        private final int index;
+        private final ArrayDeque<Request> requests;
+        // whether a task is working through the queue
+        private boolean running;
+
+        private FileQueue(int index) {
+            this.index = index;
+            this.requests = new ArrayDeque<>();
+        }
+
+        private void submit(Request request) {
+            synchronized (this) {
+                requests.add(request);
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            executor.execute(this::drain);
+        }
+
+        // one batch per task, so a busy file does not keep a thread from the others
+        private void drain() {
+            try {
+                run(takeBatch());
+            } finally {
+                synchronized (this) {
+                    if (requests.isEmpty()) {
+                        running = false;
+                        return;
+                    }
+                }
+                executor.execute(this::drain);
+            }
+        }
+
+        // the request at the head and the reads or writes after it that continue or overlap its range
+        private synchronized List<Request> takeBatch() {
+            var batch = new ArrayList<Request>();
+            Request first = requests.poll();
+            batch.add(first);
+            if (first.kind == Request.CLOSE) {
+                return batch;
+            }
+
+            int end = first.end();
+            Request next;
+            while ((next = requests.peek()) != null && next.kind == first.kind
+                    && next.pos >= first.pos && next.pos <= end && next.end() - first.pos <= MAX_BATCH_BYTES) {
+                batch.add(requests.poll());
+                end = Math.max(end, next.end());
+            }
+            return batch;
+        }
+
+        private void run(List<Request> batch) {
+            Request first = batch.get(0);
+            try {
+                if (first.kind == Request.CLOSE) {
+                    if (fileSystem.close(index) == -1) {
+                        throw failed("cannot close file " + index);
+                    }
+                    first.future.complete(0);
+                } else if (batch.size() == 1) {
+                    int n = first.kind == Request.READ
+                            ? fileSystem.pread(index, first.data, first.count, first.pos)
+                            : fileSystem.pwrite(index, first.data, first.count, first.pos);
+                    if (n == -1) {
+                        throw failed(String.format("cannot %s file %d at %d", operation(first), index, first.pos));
+                    }
+                    if (first.kind == Request.WRITE && n < first.count) {
+                        throw shortWrite(fileSystem.lastFailure(), first, n);
+                    }
+                    first.future.complete(n);
+                } else {
+                    runBatch(batch);
+                }
+            } catch (Throwable e) {
+                for (Request request : batch) {
+                    request.future.completeExceptionally(e);
+                }
+            }
+        }
+
+        private void runBatch(List<Request> batch) throws FileSystemException {
+            Request first = batch.get(0);
+            int start = first.pos;
+            int end = start;
+            for (Request request : batch) {
+                end = Math.max(end, request.end());
+            }
+
+            var buffer = new UnsignedByteArray(end - start);
+            int n;
+            if (first.kind == Request.READ) {
+                n = fileSystem.pread(index, buffer, buffer.length(), start);
+            } else {
+                // in queue order, so where writes overlap the later one wins as it would have on its own
+                for (Request request : batch) {
+                    request.data.copyTo(0, buffer, request.pos - start, request.count);
+                }
+                n = fileSystem.pwrite(index, buffer, buffer.length(), start);
+            }
+            if (n == -1) {
+                throw failed(String.format("cannot %s file %d at %d", operation(first), index, start));
+            }
+            Failure reason = fileSystem.lastFailure();
+
+            // a request starting past what was done would have found its position out of range on its own
+            for (Request request : batch) {
+                int done = start + n - request.pos;
+                if (done < 0) {
+                    request.future.completeExceptionally(new FileSystemException(Failure.POSITION_OUT_OF_RANGE,
+                            String.format("cannot %s file %d at %d", operation(request), index, request.pos)));
+                    continue;
+                }
+                done = Math.min(done, request.count);
+                if (request.kind == Request.READ) {
+                    buffer.copyTo(request.pos - start, request.data, 0, done);
+                } else if (done < request.count) {
+                    request.future.completeExceptionally(shortWrite(reason, request, done));
+                    continue;
+                }
+                request.future.complete(done);
+            }
+        }
+
+        private FileSystemException shortWrite(Failure reason, Request request, int done) {
+            return new FileSystemException(reason, String.format("wrote %d of %d bytes to file %d at %d",
+                    done, request.count, index, request.pos), done);
+        }
+
+        private String operation(Request request) {
+            return request.kind == Request.READ ? "read" : "write";
+        }
+    }
+}
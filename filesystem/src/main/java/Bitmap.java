@@ -1,67 +1,265 @@
-import array.IntArray;
 import array.UnsignedByteArray;
 
-public class Bitmap {
-    private static final int[] MASK = createMask();
-    private static final int[] MASK2 = createMask2();
-
-    private static int[] createMask() {
-        int[] mask = new int[Integer.SIZE];
-        mask[Integer.SIZE - 1] = 1;
-        for (int i = Integer.SIZE - 2; i >= 0; i--) {
-            mask[i] = mask[i + 1] << 1;
-        }
-        return mask;
-    }
-
-    private static int[] createMask2() {
-        int[] mask = createMask();
-        int[] mask2 = new int[Integer.SIZE];
-        for (int i = 0; i < Integer.SIZE; i++) {
-            mask2[i] = ~mask[i];
-        }
-        return mask2;
-    }
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
+// one bit per disk block over superblock.getBitmapBlocks() blocks, only the changed blocks are written back.
+// Words are claimed and released with atomic updates, so threads allocate without a lock.
+public class Bitmap {
     private IOSystem ioSystem;
     private UnsignedByteArray buffer;
+    private int firstBlock;
+    private int blockCount;
+    private int firstDataBlock;
+    private int length;
+    // where the next search starts; a hint only, so racing updates are harmless
+    private volatile int cursor;
+    private AtomicInteger freeBlockCount;
+    private boolean writeThrough;
+    private AtomicIntegerArray dirtyBlocks;
+
+    public Bitmap(IOSystem ioSystem, Superblock superblock) {
+        this(ioSystem, superblock, false);
+    }
 
-    public Bitmap(IOSystem ioSystem) {
+    public Bitmap(IOSystem ioSystem, Superblock superblock, boolean writeThrough) {
         this.ioSystem = ioSystem;
-        this.buffer = new UnsignedByteArray(ioSystem.getLength() / Byte.SIZE);
+        this.writeThrough = writeThrough;
+        this.length = ioSystem.getLength();
+        this.firstBlock = superblock.getBitmapStart();
+        this.blockCount = superblock.getBitmapBlocks();
+        this.firstDataBlock = superblock.getFirstDataBlock();
+        int size = blockCount * ioSystem.getBlockSize();
+        this.buffer = new UnsignedByteArray((size + Long.BYTES - 1) / Long.BYTES * Long.BYTES);
+        this.freeBlockCount = new AtomicInteger();
+        this.dirtyBlocks = new AtomicIntegerArray(blockCount);
         refresh();
     }
 
     public void refresh() {
-        ioSystem.readBlock(0, buffer);
+        for (int i = 0; i < blockCount; i++) {
+            ioSystem.readBlock(firstBlock + i, block(i));
+            dirtyBlocks.set(i, 0);
+        }
+
+        cursor = firstDataBlock;
+        int free = 0;
+        for (int k = firstDataBlock; k < length; ) {
+            int i = k / Long.SIZE;
+            int end = Math.min(length, (i + 1) * Long.SIZE);
+            free += Long.bitCount(~word(i) & range(k, end));
+            k = end;
+        }
+        freeBlockCount.set(free);
     }
 
     public int getFreeBlockIndex() {
-        IntArray bufferAsIntArray = buffer.asIntArray();
+        int from = cursor;
+        int blockIndex = findFree(from, length);
+        if (blockIndex == -1) {
+            blockIndex = findFree(firstDataBlock, from);
+        }
 
-        for (int k = 7; k < ioSystem.getLength(); k++) {
-            int i = k / Integer.SIZE;
-            int j = k % Integer.SIZE;
+        return blockIndex == -1 ? FileSystem.NOT_ALLOCATED_INDEX : blockIndex;
+    }
+
+    public int getFreeBlockCount() {
+        return freeBlockCount.get();
+    }
 
-            if ((bufferAsIntArray.get(i) & MASK[j]) == 0) {
-                return k;
+    // takes n adjacent free blocks and returns the first one
+    public int allocate(int n) {
+        while (true) {
+            int from = cursor;
+            int blockIndex = findRun(from, length, n);
+            if (blockIndex == -1) {
+                blockIndex = findRun(firstDataBlock, Math.min(length, from + n - 1), n);
+            }
+            if (blockIndex == -1) {
+                return FileSystem.NOT_ALLOCATED_INDEX;
+            }
+
+            // another thread may have taken part of the run since it was found
+            if (claim(blockIndex, blockIndex + n)) {
+                changed();
+                return blockIndex;
+            }
+        }
+    }
+
+    // takes up to n free blocks from blockIndex on, stopping at the first taken one; how many it took
+    public int allocateAt(int blockIndex, int n) {
+        while (blockIndex >= firstDataBlock && blockIndex < length) {
+            int end = findTaken(blockIndex, Math.min(length, blockIndex + n));
+            if (end == blockIndex) {
+                return 0;
+            }
+            if (claim(blockIndex, end)) {
+                changed();
+                return end - blockIndex;
             }
         }
+        return 0;
+    }
 
-        return FileSystem.NOT_ALLOCATED_INDEX;
+    public void free(int blockIndex, int n) {
+        setRange(blockIndex, blockIndex + n, false);
+        changed();
     }
 
     public void setBlockIndexTaken(int blockIndex) {
-        IntArray bufferAsIntArray = buffer.asIntArray();
-        bufferAsIntArray.set(blockIndex / Integer.SIZE, bufferAsIntArray.get(blockIndex / Integer.SIZE) | MASK[blockIndex % Integer.SIZE]);
+        setRange(blockIndex, blockIndex + 1, true);
 
-        ioSystem.writeBlock(0, buffer);
+        changed();
     }
 
     public void setBlockIndexFree(int blockIndex) {
-        IntArray bufferAsIntArray = buffer.asIntArray();
-        bufferAsIntArray.set(blockIndex / Integer.SIZE, bufferAsIntArray.get(blockIndex / Integer.SIZE) & MASK2[blockIndex % Integer.SIZE]);
+        setRange(blockIndex, blockIndex + 1, false);
 
-        ioSystem.writeBlock(0, buffer);
+        changed();
+    }
+
+    // serialized, so a slow flush cannot overwrite a newer copy of a block written by a later one
+    public synchronized void flush() {
+        for (int i = 0; i < blockCount; i++) {
+            if (dirtyBlocks.getAndSet(i, 0) == 1) {
+                ioSystem.writeBlock(firstBlock + i, block(i));
+            }
+        }
+    }
+
+    public boolean isDirty() {
+        for (int i = 0; i < blockCount; i++) {
+            if (dirtyBlocks.get(i) == 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void changed() {
+        if (writeThrough) {
+            flush();
+        }
+    }
+
+    private UnsignedByteArray block(int i) {
+        int blockSize = ioSystem.getBlockSize();
+        return buffer.slice(i * blockSize, (i + 1) * blockSize);
+    }
+
+    private int findFree(int from, int to) {
+        for (int k = from; k < to; ) {
+            int i = k / Long.SIZE;
+            long free = ~word(i) & range(k, to);
+            if (free != 0) {
+                return i * Long.SIZE + Long.numberOfLeadingZeros(free);
+            }
+            k = (i + 1) * Long.SIZE;
+        }
+        return -1;
+    }
+
+    private int findTaken(int from, int to) {
+        for (int k = from; k < to; ) {
+            int i = k / Long.SIZE;
+            long taken = word(i) & range(k, to);
+            if (taken != 0) {
+                return i * Long.SIZE + Long.numberOfLeadingZeros(taken);
+            }
+            k = (i + 1) * Long.SIZE;
+        }
+        return to;
+    }
+
+    private int findRun(int from, int to, int n) {
+        int start = findFree(from, to);
+        while (start != -1 && to - start >= n) {
+            int end = findTaken(start, start + n);
+            if (end == start + n) {
+                return start;
+            }
+            start = findFree(end, to);
+        }
+        return -1;
+    }
+
+    // sets every bit in [from, to) only if all of them are clear
+    private boolean claim(int from, int to) {
+        for (int k = from; k < to; ) {
+            int i = k / Long.SIZE;
+            int end = Math.min(to, (i + 1) * Long.SIZE);
+            long mask = range(k, end);
+
+            long word;
+            do {
+                word = word(i);
+                if ((word & mask) != 0) {
+                    if (k > from) {
+                        release(from, k);
+                    }
+                    return false;
+                }
+            } while (!buffer.compareAndSetLong(i * Long.BYTES, word, word | mask));
+
+            k = end;
+        }
+
+        freeBlockCount.addAndGet(-(to - from));
+        markDirty(from, to);
+        cursor = to < length ? to : firstDataBlock;
+        return true;
+    }
+
+    private void release(int from, int to) {
+        for (int k = from; k < to; ) {
+            int i = k / Long.SIZE;
+            int end = Math.min(to, (i + 1) * Long.SIZE);
+            buffer.getAndBitwiseAndLong(i * Long.BYTES, ~range(k, end));
+            k = end;
+        }
+    }
+
+    private void setRange(int from, int to, boolean taken) {
+        int changed = 0;
+        for (int k = from; k < to; ) {
+            int i = k / Long.SIZE;
+            int end = Math.min(to, (i + 1) * Long.SIZE);
+            long mask = range(k, end);
+
+            long word = taken
+                    ? buffer.getAndBitwiseOrLong(i * Long.BYTES, mask)
+                    : buffer.getAndBitwiseAndLong(i * Long.BYTES, ~mask);
+            changed += Long.bitCount(taken ? ~word & mask : word & mask);
+            k = end;
+        }
+
+        freeBlockCount.addAndGet(taken ? -changed : changed);
+        markDirty(from, to);
+
+        if (taken) {
+            cursor = to < length ? to : firstDataBlock;
+        }
+    }
+
+    private void markDirty(int from, int to) {
+        int bitsPerBlock = ioSystem.getBlockSize() * Byte.SIZE;
+        for (int i = from / bitsPerBlock; i <= (to - 1) / bitsPerBlock; i++) {
+            dirtyBlocks.set(i, 1);
+        }
+    }
+
+    private long word(int i) {
+        return buffer.getLongVolatile(i * Long.BYTES);
+    }
+
+    // bits of word containing from that lie in [from, to), most significant bit first
+    private static long range(int from, int to) {
+        int word = from / Long.SIZE;
+        long mask = -1L >>> (from - word * Long.SIZE);
+        if (to < (word + 1) * Long.SIZE) {
+            mask &= ~(-1L >>> (to - word * Long.SIZE));
+        }
+        return mask;
     }
 }
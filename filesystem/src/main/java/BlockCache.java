@@ -0,0 +1,442 @@
+import array.UnsignedByteArray;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed number of block frames in front of another IOSystem, evicted by CLOCK.
+// A pinned frame is never evicted, so its data can be used outside the cache lock;
+// callers pin one frame at a time and unpin it when done.
+// Write-back keeps modified frames until they are evicted or flushed, write-through writes them at once.
+// Misses are read from the IOSystem outside the lock, so a slow read does not hold up hits on other blocks.
+// Prefetches and flushes move runs of adjacent blocks with one readBlocksAsync or writeBlocksAsync call,
+// starting all of their runs before waiting on any, so a device that can have several in flight gets them at once.
+public class BlockCache extends IOSystem {
+    private static final int BACKGROUND_THREADS = 2;
+    private static final int BACKGROUND_QUEUE = 64;
+    // the most blocks one device call moves
+    private static final int MAX_RUN_BLOCKS = 64;
+    // the block of a frame whose prefetch failed, which holds nothing
+    private static final int NO_BLOCK = -1;
+
+    private IOSystem device;
+    private boolean writeThrough;
+    private int capacity;
+    private Frame[] frames;
+    private int frameCount;
+    private Map<Integer, Frame> blocks;
+    private int hand;
+    private long hits;
+    private long misses;
+    private ReentrantLock lock;
+    // signalled when a frame is unpinned or finishes loading or writing
+    private Condition changed;
+    // read-ahead and write-behind; both are hints, so tasks that do not fit in the queue are dropped
+    private ThreadPoolExecutor background;
+
+    public BlockCache(IOSystem device, int capacity) {
+        this(device, capacity, false);
+    }
+
+    public BlockCache(IOSystem device, int capacity, boolean writeThrough) {
+        this.device = device;
+        this.writeThrough = writeThrough;
+        // frames are allocated as they are needed, so a large capacity costs nothing on a small disk
+        this.capacity = Math.max(1, Math.min(capacity, device.getLength()));
+        this.frames = new Frame[this.capacity];
+        this.blocks = new HashMap<>();
+        this.lock = new ReentrantLock();
+        this.changed = lock.newCondition();
+        this.background = new ThreadPoolExecutor(BACKGROUND_THREADS, BACKGROUND_THREADS, 1, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(BACKGROUND_QUEUE), runnable -> {
+                    Thread thread = new Thread(runnable, "block-cache");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+        this.background.allowCoreThreadTimeOut(true);
+    }
+
+    // the frame holding blockIndex; without load a missing block is not read, for callers that overwrite all of it
+    public Frame pin(int blockIndex, boolean load) {
+        lock.lock();
+        try {
+            while (true) {
+                Frame frame = blocks.get(blockIndex);
+                if (frame != null && !frame.loading) {
+                    hits++;
+                    frame.pins++;
+                    frame.referenced = true;
+                    return frame;
+                }
+                if (frame == null && (frame = victim()) != null) {
+                    misses++;
+                    frame.pins++;
+                    frame.referenced = true;
+                    assign(frame, blockIndex, load);
+                    return frame;
+                }
+
+                // the block is being read by another thread, or every frame is pinned
+                changed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void unpin(Frame frame, boolean modified) {
+        if (modified && writeThrough) {
+            device.writeBlock(frame.blockIndex, frame.data);
+        }
+
+        lock.lock();
+        try {
+            if (modified && !writeThrough) {
+                frame.dirty = true;
+            }
+            if (--frame.pins == 0) {
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // reads blockIndex into the cache unless it is there already; gives up rather than wait for a frame
+    public void prefetch(int blockIndex) {
+        prefetch(blockIndex, 1);
+    }
+
+    // the same for count blocks from first, reading each run of them that is not cached with one device call
+    public void prefetch(int first, int count) {
+        lock.lock();
+        try {
+            int b = first;
+            while (b < first + count) {
+                if (blocks.containsKey(b)) {
+                    b++;
+                    continue;
+                }
+
+                var run = new ArrayList<Frame>();
+                for (; b < first + count && run.size() < MAX_RUN_BLOCKS && !blocks.containsKey(b); b++) {
+                    Frame frame = victim();
+                    if (frame == null) {
+                        break;
+                    }
+                    frame.pins++;
+                    frame.referenced = true;
+                    frame.blockIndex = b;
+                    frame.loading = true;
+                    blocks.put(b, frame);
+                    run.add(frame);
+                }
+                if (run.isEmpty()) {
+                    return;
+                }
+                load(run);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // writes blockIndex back if it is cached and modified, so evicting it later costs nothing
+    public void clean(int blockIndex) {
+        Frame frame;
+        lock.lock();
+        try {
+            frame = blocks.get(blockIndex);
+            if (frame == null || !frame.dirty || frame.loading || frame.writing) {
+                return;
+            }
+            // a writer that modifies the frame meanwhile marks it dirty again when it unpins
+            frame.dirty = false;
+            frame.writing = true;
+            frame.pins++;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            device.writeBlock(blockIndex, frame.data);
+        } finally {
+            lock.lock();
+            try {
+                frame.writing = false;
+                frame.pins--;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public void prefetchAsync(int first, int count) {
+        background.execute(() -> prefetch(first, count));
+    }
+
+    public void cleanAsync(int blockIndex) {
+        if (!writeThrough) {
+            background.execute(() -> clean(blockIndex));
+        }
+    }
+
+    @Override
+    public void readBlock(int i, UnsignedByteArray p) {
+        Frame frame = pin(i, true);
+        try {
+            frame.data.copyTo(0, p, 0, p.length());
+        } finally {
+            unpin(frame, false);
+        }
+    }
+
+    @Override
+    public void writeBlock(int i, UnsignedByteArray p) {
+        Frame frame = pin(i, p.length() < device.getBlockSize());
+        try {
+            p.copyTo(0, frame.data, 0, p.length());
+        } finally {
+            unpin(frame, true);
+        }
+    }
+
+    @Override
+    public int getLength() {
+        return device.getLength();
+    }
+
+    @Override
+    public int getBlockSize() {
+        return device.getBlockSize();
+    }
+
+    // writes every modified frame back, then flushes the device
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            awaitWrites();
+            var dirty = new ArrayList<Frame>();
+            for (int i = 0; i < frameCount; i++) {
+                if (frames[i].dirty) {
+                    dirty.add(frames[i]);
+                }
+            }
+            writeBackRuns(dirty);
+        } finally {
+            lock.unlock();
+        }
+        device.flush();
+    }
+
+    // writes the given blocks back if they are cached and modified, adjacent ones together;
+    // the device is not flushed, so they are only in the order the device keeps, see force
+    public void clean(List<Integer> blockIndexes) {
+        lock.lock();
+        try {
+            awaitWrites();
+            var dirty = new ArrayList<Frame>();
+            for (int blockIndex : blockIndexes) {
+                Frame frame = blocks.get(blockIndex);
+                if (frame != null && frame.dirty && !frame.loading) {
+                    dirty.add(frame);
+                }
+            }
+            writeBackRuns(dirty);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // flushes the device, making what was written back durable
+    public void force() {
+        device.flush();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        lock.lock();
+        try {
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMisses() {
+        lock.lock();
+        try {
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // maps a pinned frame to blockIndex and, with load, fills it while the lock is released
+    private void assign(Frame frame, int blockIndex, boolean load) {
+        frame.blockIndex = blockIndex;
+        blocks.put(blockIndex, frame);
+        if (!load) {
+            return;
+        }
+
+        frame.loading = true;
+        lock.unlock();
+        try {
+            device.readBlock(blockIndex, frame.data);
+        } finally {
+            lock.lock();
+            frame.loading = false;
+            changed.signalAll();
+        }
+    }
+
+    // starts filling the pinned, loading frames of a run of adjacent blocks and unpins them when the read is done;
+    // the device is called with the lock released, as a device without asynchronous reads does the read right there
+    private void load(List<Frame> run) {
+        int blockSize = device.getBlockSize();
+        // nothing else touches a loading frame, so a single one is read into directly
+        var buffer = run.size() == 1 ? run.get(0).data : new UnsignedByteArray(run.size() * blockSize);
+        CompletableFuture<Void> read;
+        lock.unlock();
+        try {
+            read = device.readBlocksAsync(run.get(0).blockIndex, run.size(), buffer);
+        } catch (RuntimeException e) {
+            read = CompletableFuture.failedFuture(e);
+        } finally {
+            lock.lock();
+        }
+        read.whenComplete((ignored, e) -> loaded(run, buffer, e));
+    }
+
+    private void loaded(List<Frame> run, UnsignedByteArray buffer, Throwable e) {
+        lock.lock();
+        try {
+            int blockSize = device.getBlockSize();
+            for (int k = 0; k < run.size(); k++) {
+                Frame frame = run.get(k);
+                if (e != null) {
+                    // a prefetch is only a hint; the block is read again when it is used
+                    blocks.remove(frame.blockIndex);
+                    frame.blockIndex = NO_BLOCK;
+                } else if (buffer != frame.data) {
+                    buffer.copyTo(k * blockSize, frame.data, 0, blockSize);
+                }
+                frame.loading = false;
+                frame.pins--;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (e != null) {
+            e.printStackTrace();
+        }
+    }
+
+    // a free frame, or the first unpinned one the clock hand finds without a recent reference; null when all are pinned
+    private Frame victim() {
+        if (frameCount < capacity) {
+            frames[frameCount] = new Frame(device.getBlockSize());
+            return frames[frameCount++];
+        }
+
+        // two sweeps: the first may only clear reference bits
+        for (int step = 0; step < 2 * capacity; step++) {
+            Frame frame = frames[hand];
+            hand = (hand + 1) % capacity;
+            if (frame.pins > 0) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+
+            writeBack(frame);
+            blocks.remove(frame.blockIndex);
+            return frame;
+        }
+        return null;
+    }
+
+    private void writeBack(Frame frame) {
+        if (frame.dirty) {
+            device.writeBlock(frame.blockIndex, frame.data);
+            frame.dirty = false;
+        }
+    }
+
+    // a background write still going could land after a write-back's copy of the same block
+    private void awaitWrites() {
+        for (int i = 0; i < frameCount; ) {
+            if (frames[i].writing) {
+                changed.awaitUninterruptibly();
+                i = 0;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    // dirty frames in block order, each run of adjacent blocks with one device call; every run is started
+    // before any is waited for, and the frames stay dirty unless all of them are written
+    private void writeBackRuns(List<Frame> dirty) {
+        dirty.sort(Comparator.comparingInt(frame -> frame.blockIndex));
+        int blockSize = device.getBlockSize();
+        var writes = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < dirty.size(); ) {
+            int n = 1;
+            while (i + n < dirty.size() && n < MAX_RUN_BLOCKS
+                    && dirty.get(i + n).blockIndex == dirty.get(i).blockIndex + n) {
+                n++;
+            }
+
+            UnsignedByteArray buffer = dirty.get(i).data;
+            if (n > 1) {
+                buffer = new UnsignedByteArray(n * blockSize);
+                for (int k = 0; k < n; k++) {
+                    dirty.get(i + k).data.copyTo(0, buffer, k * blockSize, blockSize);
+                }
+            }
+            writes.add(device.writeBlocksAsync(dirty.get(i).blockIndex, n, buffer));
+            i += n;
+        }
+
+        await(CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])));
+        for (Frame frame : dirty) {
+            frame.dirty = false;
+        }
+    }
+
+    public static class Frame {
+        private UnsignedByteArray data;
+        private int blockIndex;
+        private int pins;
+        private boolean dirty;
+        private boolean referenced;
+        private boolean loading;
+        private boolean writing;
+
+        private Frame(int blockSize) {
+            this.data = new UnsignedByteArray(blockSize);
+        }
+
+        public UnsignedByteArray getData() {
+            return data;
+        }
+    }
+}
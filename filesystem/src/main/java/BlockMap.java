@@ -0,0 +1,272 @@
+import array.UnsignedByteArray;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Maps file blocks to disk blocks through extents. A file's extents are numbered by slot:
+// the direct extents in the descriptor first, then the extents stored in the indirect block,
+// then those stored in the extent blocks listed by the double indirect block.
+// Callers hold the lock of the descriptor they pass in; the block buffers are per thread.
+public class BlockMap {
+    private static final int EXTENT_SIZE = 2 * Integer.BYTES;
+    private static final int NO_BLOCK = 0;
+    // what append returns when the file has used every extent slot
+    public static final int NO_EXTENT_SLOT = -1;
+
+    private IOSystem ioSystem;
+    private Bitmap bitmap;
+    private DescriptorTable descriptorTable;
+    private int extentsPerBlock;
+    private int pointersPerBlock;
+    private int maxExtents;
+    // bumped on every write to an extent or pointer block, so other threads drop their copies
+    private AtomicInteger version;
+    private ThreadLocal<Cache> caches;
+
+    public BlockMap(IOSystem ioSystem, Bitmap bitmap, DescriptorTable descriptorTable) {
+        this.ioSystem = ioSystem;
+        this.bitmap = bitmap;
+        this.descriptorTable = descriptorTable;
+        this.extentsPerBlock = ioSystem.getBlockSize() / EXTENT_SIZE;
+        this.pointersPerBlock = ioSystem.getBlockSize() / Integer.BYTES;
+        this.maxExtents = DescriptorTable.DIRECT_EXTENTS + extentsPerBlock + pointersPerBlock * extentsPerBlock;
+        this.version = new AtomicInteger();
+        this.caches = ThreadLocal.withInitial(Cache::new);
+    }
+
+    public void refresh() {
+        version.incrementAndGet();
+    }
+
+    // fills extent with the run that holds blockNumber, false when the file has no such block
+    public boolean find(int descriptorIndex, int blockNumber, Extent extent) {
+        if (blockNumber >= descriptorTable.getBlockCount(descriptorIndex)) {
+            return false;
+        }
+
+        Cache cache = cache();
+        int fileBlock = 0;
+        for (int slot = 0; ; slot++) {
+            readExtent(cache, descriptorIndex, slot, fileBlock, extent);
+            if (extent.contains(blockNumber)) {
+                return true;
+            }
+            fileBlock += extent.getCount();
+        }
+    }
+
+    // maps up to count new blocks after the last block of the file, returns how many were mapped:
+    // 0 when the disk is full, NO_EXTENT_SLOT when the file cannot take another extent
+    public int append(int descriptorIndex, int count) {
+        Cache cache = cache();
+        Extent last = cache.scratch;
+        int blockCount = descriptorTable.getBlockCount(descriptorIndex);
+        int lastSlot = -1;
+        for (int fileBlock = 0; fileBlock < blockCount; fileBlock += last.getCount()) {
+            readExtent(cache, descriptorIndex, ++lastSlot, fileBlock, last);
+        }
+
+        // the blocks right after the last extent only make it longer, so files written in turn keep their slots
+        if (lastSlot >= 0) {
+            int grown = bitmap.allocateAt(last.getStart() + last.getCount(), count);
+            if (grown > 0) {
+                writeExtent(cache, descriptorIndex, lastSlot, last.getStart(), last.getCount() + grown);
+                descriptorTable.setBlockCount(descriptorIndex, blockCount + grown);
+                return grown;
+            }
+        }
+        if (lastSlot + 1 >= maxExtents) {
+            return NO_EXTENT_SLOT;
+        }
+
+        int start = bitmap.allocate(count);
+        if (start == FileSystem.NOT_ALLOCATED_INDEX) {
+            start = bitmap.allocate(1);
+            if (start == FileSystem.NOT_ALLOCATED_INDEX) {
+                return 0;
+            }
+            count = 1;
+        }
+
+        if (lastSlot >= 0 && last.getStart() + last.getCount() == start) {
+            writeExtent(cache, descriptorIndex, lastSlot, last.getStart(), last.getCount() + count);
+        } else if (!writeExtent(cache, descriptorIndex, lastSlot + 1, start, count)) {
+            bitmap.free(start, count);
+            return 0;
+        }
+
+        descriptorTable.setBlockCount(descriptorIndex, blockCount + count);
+        return count;
+    }
+
+    // releases every data and extent block of the file
+    public void free(int descriptorIndex) {
+        Cache cache = cache();
+        Extent extent = cache.scratch;
+        int blockCount = descriptorTable.getBlockCount(descriptorIndex);
+        for (int slot = 0, fileBlock = 0; fileBlock < blockCount; slot++) {
+            readExtent(cache, descriptorIndex, slot, fileBlock, extent);
+            bitmap.free(extent.getStart(), extent.getCount());
+            fileBlock += extent.getCount();
+        }
+
+        int indirectBlock = descriptorTable.getIndirectBlock(descriptorIndex);
+        if (indirectBlock != NO_BLOCK) {
+            freeMetadataBlock(indirectBlock);
+        }
+
+        int doubleIndirectBlock = descriptorTable.getDoubleIndirectBlock(descriptorIndex);
+        if (doubleIndirectBlock != NO_BLOCK) {
+            cache.loadPointerBlock(doubleIndirectBlock);
+            for (int i = 0; i < pointersPerBlock; i++) {
+                int blockIndex = cache.pointerBlock.getInt(i * Integer.BYTES);
+                if (blockIndex != NO_BLOCK) {
+                    freeMetadataBlock(blockIndex);
+                }
+            }
+            freeMetadataBlock(doubleIndirectBlock);
+        }
+
+        // the freed blocks may come back as data blocks, so no thread may trust its copy of them
+        refresh();
+    }
+
+    private Cache cache() {
+        Cache cache = caches.get();
+        int current = version.get();
+        if (cache.version != current) {
+            cache.loadedExtentBlock = NO_BLOCK;
+            cache.loadedPointerBlock = NO_BLOCK;
+            cache.version = current;
+        }
+        return cache;
+    }
+
+    private void written(Cache cache, int blockIndex, UnsignedByteArray block) {
+        ioSystem.writeBlock(blockIndex, block);
+        // the writer's own copy stays valid unless someone else wrote in between
+        if (!version.compareAndSet(cache.version, cache.version + 1)) {
+            version.incrementAndGet();
+            cache.version = -1;
+        } else {
+            cache.version++;
+        }
+    }
+
+    private void readExtent(Cache cache, int descriptorIndex, int slot, int fileBlock, Extent extent) {
+        if (slot < DescriptorTable.DIRECT_EXTENTS) {
+            extent.set(fileBlock, descriptorTable.getExtentStart(descriptorIndex, slot),
+                    descriptorTable.getExtentCount(descriptorIndex, slot));
+            return;
+        }
+
+        int offset = locateExtent(cache, descriptorIndex, slot, false);
+        extent.set(fileBlock, cache.extentBlock.getInt(offset), cache.extentBlock.getInt(offset + Integer.BYTES));
+    }
+
+    private boolean writeExtent(Cache cache, int descriptorIndex, int slot, int start, int count) {
+        if (slot < DescriptorTable.DIRECT_EXTENTS) {
+            descriptorTable.setExtent(descriptorIndex, slot, start, count);
+            return true;
+        }
+
+        int offset = locateExtent(cache, descriptorIndex, slot, true);
+        if (offset == -1) {
+            return false;
+        }
+
+        cache.extentBlock.setInt(offset, start);
+        cache.extentBlock.setInt(offset + Integer.BYTES, count);
+        written(cache, cache.loadedExtentBlock, cache.extentBlock);
+        return true;
+    }
+
+    // loads the extent block holding slot and returns the slot's offset in it,
+    // allocating missing extent blocks on the way when create is set
+    private int locateExtent(Cache cache, int descriptorIndex, int slot, boolean create) {
+        int index = slot - DescriptorTable.DIRECT_EXTENTS;
+
+        if (index < extentsPerBlock) {
+            int blockIndex = descriptorTable.getIndirectBlock(descriptorIndex);
+            if (blockIndex == NO_BLOCK) {
+                if (!create || (blockIndex = allocateMetadataBlock()) == NO_BLOCK) {
+                    return -1;
+                }
+                descriptorTable.setIndirectBlock(descriptorIndex, blockIndex);
+                clearExtentBlock(cache, blockIndex);
+            }
+            cache.loadExtentBlock(blockIndex);
+            return index * EXTENT_SIZE;
+        }
+
+        index -= extentsPerBlock;
+        int pointer = index / extentsPerBlock;
+        if (pointer >= pointersPerBlock) {
+            return -1;
+        }
+
+        int doubleIndirectBlock = descriptorTable.getDoubleIndirectBlock(descriptorIndex);
+        if (doubleIndirectBlock == NO_BLOCK) {
+            if (!create || (doubleIndirectBlock = allocateMetadataBlock()) == NO_BLOCK) {
+                return -1;
+            }
+            descriptorTable.setDoubleIndirectBlock(descriptorIndex, doubleIndirectBlock);
+            cache.pointerBlock.fill(0);
+            cache.loadedPointerBlock = doubleIndirectBlock;
+            written(cache, doubleIndirectBlock, cache.pointerBlock);
+        }
+
+        cache.loadPointerBlock(doubleIndirectBlock);
+        int blockIndex = cache.pointerBlock.getInt(pointer * Integer.BYTES);
+        if (blockIndex == NO_BLOCK) {
+            if (!create || (blockIndex = allocateMetadataBlock()) == NO_BLOCK) {
+                return -1;
+            }
+            cache.pointerBlock.setInt(pointer * Integer.BYTES, blockIndex);
+            written(cache, doubleIndirectBlock, cache.pointerBlock);
+            clearExtentBlock(cache, blockIndex);
+        }
+
+        cache.loadExtentBlock(blockIndex);
+        return index % extentsPerBlock * EXTENT_SIZE;
+    }
+
+    private int allocateMetadataBlock() {
+        int blockIndex = bitmap.allocate(1);
+        return blockIndex == FileSystem.NOT_ALLOCATED_INDEX ? NO_BLOCK : blockIndex;
+    }
+
+    // a pending write of the old contents must not land on the block once it holds file data
+    private void freeMetadataBlock(int blockIndex) {
+        ioSystem.discard(blockIndex);
+        bitmap.setBlockIndexFree(blockIndex);
+    }
+
+    private void clearExtentBlock(Cache cache, int blockIndex) {
+        cache.extentBlock.fill(0);
+        cache.loadedExtentBlock = blockIndex;
+        written(cache, blockIndex, cache.extentBlock);
+    }
+
+    private class Cache {
+        private UnsignedByteArray extentBlock = new UnsignedByteArray(ioSystem.getBlockSize());
+        private int loadedExtentBlock = NO_BLOCK;
+        private UnsignedByteArray pointerBlock = new UnsignedByteArray(ioSystem.getBlockSize());
+        private int loadedPointerBlock = NO_BLOCK;
+        private Extent scratch = new Extent();
+        private int version = -1;
+
+        private void loadExtentBlock(int blockIndex) {
+            if (loadedExtentBlock != blockIndex) {
+                ioSystem.readBlock(blockIndex, extentBlock);
+                loadedExtentBlock = blockIndex;
+            }
+        }
+
+        private void loadPointerBlock(int blockIndex) {
+            if (loadedPointerBlock != blockIndex) {
+                ioSystem.readBlock(blockIndex, pointerBlock);
+                loadedPointerBlock = blockIndex;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+// Directory entries found by earlier lookups, by directory descriptor and name, so a path that was walked
+// before is walked again without reading directory blocks. Holds at most capacity entries,
+// dropping the least recently used. Lookups share the directory lock, so every method is synchronized.
+public class DentryCache {
+    private final Map<Key, Directory.Entry> entries;
+
+    public DentryCache(int capacity) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Directory.Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized Directory.Entry get(int directory, String name) {
+        return entries.get(new Key(directory, name));
+    }
+
+    public synchronized void put(int directory, Directory.Entry entry) {
+        entries.put(new Key(directory, entry.getName()), entry);
+    }
+
+    public synchronized void remove(int directory, String name) {
+        entries.remove(new Key(directory, name));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private static class Key {
+        private final int directory;
+        private final String name;
+
+        private Key(int directory, String name) {
+            this.directory = directory;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).directory == directory && ((Key) obj).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(directory, name);
+        }
+    }
+}
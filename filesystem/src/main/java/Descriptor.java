@@ -1,36 +1,29 @@
-import array.UnsignedByteArray;
-
 public class Descriptor {
-    private UnsignedByteArray array;
+    private final DescriptorTable table;
+    private final int index;
 
-    public Descriptor(int fileLength, int[] blockIndices) {
-        array = new UnsignedByteArray(blockIndices.length + 1);
-        array.set(0, fileLength);
-        for (int i = 0; i < blockIndices.length; i++) {
-            array.set(i + 1, blockIndices[i]);
-        }
+    public Descriptor(DescriptorTable table, int index) {
+        this.table = table;
+        this.index = index;
     }
-    public Descriptor(UnsignedByteArray array) {
-        this.array = array;
+
+    public void init(int extentStart) {
+        table.clear(index, extentStart);
     }
 
     public int getFileLength() {
-        return array.get(0);
+        return table.getFileLength(index);
     }
 
     public void setFileLength(int fileLength) {
-        array.set(0, fileLength);
-    }
-
-    public void setBlockIndex(int blockNumber, int blockIndex) {
-        array.set(blockNumber + 1, blockIndex);
+        table.setFileLength(index, fileLength);
     }
 
-    public int getBlockIndex(int blockNumber) {
-        return array.get(1 + blockNumber);
+    public int getExtentStart(int extentNumber) {
+        return table.getExtentStart(index, extentNumber);
     }
 
-    public UnsignedByteArray asUnsignedByteArray() {
-        return array;
+    public int getBlockCount() {
+        return table.getBlockCount(index);
     }
 }
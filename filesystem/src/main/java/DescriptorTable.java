@@ -0,0 +1,289 @@
+import array.UnsignedByteArray;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// descriptor layout, big-endian ints:
+// file length | 2 direct extents (start, block count) | indirect block | double indirect block | mapped block count
+// A descriptor is free while its first extent starts at 0, which no file can use since block 0 is the superblock.
+// A bitmap of the descriptors in use, one bit per descriptor with the most significant bit of each byte first,
+// follows the descriptors in the table's region and is journaled with them, so finding a free descriptor does not
+// go through every one. A region formatted without room for it has the bitmap rebuilt from the table on refresh.
+public class DescriptorTable {
+    static final int DESCRIPTOR_SIZE = 32;
+    static final int DIRECT_EXTENTS = 2;
+
+    private static final int LENGTH_OFFSET = 0;
+    private static final int EXTENTS_OFFSET = 4;
+    private static final int INDIRECT_OFFSET = 20;
+    private static final int DOUBLE_INDIRECT_OFFSET = 24;
+    private static final int BLOCK_COUNT_OFFSET = 28;
+
+    private IOSystem ioSystem;
+    private UnsignedByteArray buffer;
+    private int firstBlock;
+    private int blockCount;
+    private int descriptorsPerBlock;
+    // blocks of descriptors, then the blocks of the bitmap in use; 0 of those when the region has no room for it
+    private int descriptorBlocks;
+    private int usedBlocks;
+    private int[] fileLengths;
+    private int[] extentStarts;
+    private int[] extentCounts;
+    private int[] indirectBlocks;
+    private int[] doubleIndirectBlocks;
+    private int[] blockCounts;
+    private BitSet dirtyBlocks;
+    // one bit per descriptor in use; descriptors in one word may be changed by different threads
+    private AtomicLongArray used;
+    // where the next search for a free descriptor starts
+    private volatile int cursor;
+    private boolean writeThrough;
+
+    public DescriptorTable(IOSystem ioSystem, Superblock superblock, boolean writeThrough) {
+        this.ioSystem = ioSystem;
+        this.writeThrough = writeThrough;
+        this.buffer = new UnsignedByteArray(ioSystem.getBlockSize());
+        this.firstBlock = superblock.getDescriptorTableStart();
+        this.blockCount = superblock.getDescriptorTableBlocks();
+        this.descriptorsPerBlock = buffer.length() / DESCRIPTOR_SIZE;
+
+        int size = superblock.getDescriptorCount();
+        this.fileLengths = new int[size];
+        this.extentStarts = new int[size * DIRECT_EXTENTS];
+        this.extentCounts = new int[size * DIRECT_EXTENTS];
+        this.indirectBlocks = new int[size];
+        this.doubleIndirectBlocks = new int[size];
+        this.blockCounts = new int[size];
+        this.descriptorBlocks = descriptorBlocks(size, buffer.length());
+        this.usedBlocks = blockCount >= regionBlocks(size, buffer.length()) ? usedBlocks(size, buffer.length()) : 0;
+        this.dirtyBlocks = new BitSet(blockCount);
+        this.used = new AtomicLongArray((size + Long.SIZE - 1) / Long.SIZE);
+        refresh();
+    }
+
+    // blocks of the region holding count descriptors and the bitmap of those in use
+    static int regionBlocks(int count, int blockSize) {
+        return descriptorBlocks(count, blockSize) + usedBlocks(count, blockSize);
+    }
+
+    private static int descriptorBlocks(int count, int blockSize) {
+        return (int) (((long) count * DESCRIPTOR_SIZE + blockSize - 1) / blockSize);
+    }
+
+    private static int usedBlocks(int count, int blockSize) {
+        return (int) (((long) count + blockSize * 8L - 1) / (blockSize * 8L));
+    }
+
+    public void refresh() {
+        for (int i = 0; i < descriptorBlocks; i++) {
+            ioSystem.readBlock(firstBlock + i, buffer);
+            for (int j = 0; j < descriptorsInBlock(i); j++) {
+                decode(i * descriptorsPerBlock + j, j * DESCRIPTOR_SIZE);
+            }
+        }
+
+        for (int w = 0; w < used.length(); w++) {
+            used.set(w, 0);
+        }
+        if (usedBlocks == 0) {
+            for (int descriptorIndex = 0; descriptorIndex < size(); descriptorIndex++) {
+                updateUsed(descriptorIndex);
+            }
+        }
+        for (int k = 0; k < usedBlocks; k++) {
+            ioSystem.readBlock(firstBlock + descriptorBlocks + k, buffer);
+            int first = k * buffer.length() * Byte.SIZE;
+            for (int d = first; d < Math.min(size(), first + buffer.length() * Byte.SIZE); d++) {
+                if ((buffer.get((d - first) / Byte.SIZE) & (0x80 >>> (d % Byte.SIZE))) != 0) {
+                    used.getAndAccumulate(d / Long.SIZE, 1L << (d % Long.SIZE), (word, b) -> word | b);
+                }
+            }
+        }
+        dirtyBlocks.clear();
+        cursor = 0;
+    }
+
+    // entries are written by the thread holding their file's lock, the dirty set and buffer are shared
+    public synchronized void flush() {
+        for (int i = dirtyBlocks.nextSetBit(0); i >= 0; i = dirtyBlocks.nextSetBit(i + 1)) {
+            buffer.fill(0);
+            if (i < descriptorBlocks) {
+                for (int j = 0; j < descriptorsInBlock(i); j++) {
+                    encode(i * descriptorsPerBlock + j, j * DESCRIPTOR_SIZE);
+                }
+            } else {
+                encodeUsed(i - descriptorBlocks);
+            }
+            ioSystem.writeBlock(firstBlock + i, buffer);
+        }
+        dirtyBlocks.clear();
+    }
+
+    public Descriptor get(int descriptorIndex) {
+        return new Descriptor(this, descriptorIndex);
+    }
+
+    public int size() {
+        return fileLengths.length;
+    }
+
+    // the first free descriptor at or after the last one taken, wrapping around; -1 when all are in use.
+    // It stays free until cleared with a nonzero extent start
+    public int getFreeDescriptorIndex() {
+        int from = cursor;
+        int descriptorIndex = findFree(from, size());
+        if (descriptorIndex == -1) {
+            descriptorIndex = findFree(0, from);
+        }
+        return descriptorIndex;
+    }
+
+    // resets the descriptor to an empty file whose first extent starts at extentStart, or frees it when that is 0
+    public void clear(int descriptorIndex, int extentStart) {
+        fileLengths[descriptorIndex] = 0;
+        for (int k = 0; k < DIRECT_EXTENTS; k++) {
+            extentStarts[descriptorIndex * DIRECT_EXTENTS + k] = extentStart;
+            extentCounts[descriptorIndex * DIRECT_EXTENTS + k] = 0;
+        }
+        indirectBlocks[descriptorIndex] = 0;
+        doubleIndirectBlocks[descriptorIndex] = 0;
+        blockCounts[descriptorIndex] = 0;
+        updateUsed(descriptorIndex);
+        if (extentStart != 0) {
+            cursor = descriptorIndex + 1 < size() ? descriptorIndex + 1 : 0;
+        }
+        changed(descriptorIndex);
+    }
+
+    public int getFileLength(int descriptorIndex) {
+        return fileLengths[descriptorIndex];
+    }
+
+    public void setFileLength(int descriptorIndex, int fileLength) {
+        fileLengths[descriptorIndex] = fileLength;
+        changed(descriptorIndex);
+    }
+
+    public int getExtentStart(int descriptorIndex, int extentNumber) {
+        return extentStarts[descriptorIndex * DIRECT_EXTENTS + extentNumber];
+    }
+
+    public int getExtentCount(int descriptorIndex, int extentNumber) {
+        return extentCounts[descriptorIndex * DIRECT_EXTENTS + extentNumber];
+    }
+
+    public void setExtent(int descriptorIndex, int extentNumber, int start, int count) {
+        extentStarts[descriptorIndex * DIRECT_EXTENTS + extentNumber] = start;
+        extentCounts[descriptorIndex * DIRECT_EXTENTS + extentNumber] = count;
+        if (extentNumber == 0) {
+            updateUsed(descriptorIndex);
+        }
+        changed(descriptorIndex);
+    }
+
+    public int getIndirectBlock(int descriptorIndex) {
+        return indirectBlocks[descriptorIndex];
+    }
+
+    public void setIndirectBlock(int descriptorIndex, int blockIndex) {
+        indirectBlocks[descriptorIndex] = blockIndex;
+        changed(descriptorIndex);
+    }
+
+    public int getDoubleIndirectBlock(int descriptorIndex) {
+        return doubleIndirectBlocks[descriptorIndex];
+    }
+
+    public void setDoubleIndirectBlock(int descriptorIndex, int blockIndex) {
+        doubleIndirectBlocks[descriptorIndex] = blockIndex;
+        changed(descriptorIndex);
+    }
+
+    public int getBlockCount(int descriptorIndex) {
+        return blockCounts[descriptorIndex];
+    }
+
+    public void setBlockCount(int descriptorIndex, int blockCount) {
+        blockCounts[descriptorIndex] = blockCount;
+        changed(descriptorIndex);
+    }
+
+    // the last block of the table may be only partly used
+    private int descriptorsInBlock(int i) {
+        return Math.min(descriptorsPerBlock, size() - i * descriptorsPerBlock);
+    }
+
+    private void decode(int descriptorIndex, int offset) {
+        fileLengths[descriptorIndex] = buffer.getInt(offset + LENGTH_OFFSET);
+        for (int k = 0; k < DIRECT_EXTENTS; k++) {
+            int extentOffset = offset + EXTENTS_OFFSET + k * 2 * Integer.BYTES;
+            extentStarts[descriptorIndex * DIRECT_EXTENTS + k] = buffer.getInt(extentOffset);
+            extentCounts[descriptorIndex * DIRECT_EXTENTS + k] = buffer.getInt(extentOffset + Integer.BYTES);
+        }
+        indirectBlocks[descriptorIndex] = buffer.getInt(offset + INDIRECT_OFFSET);
+        doubleIndirectBlocks[descriptorIndex] = buffer.getInt(offset + DOUBLE_INDIRECT_OFFSET);
+        blockCounts[descriptorIndex] = buffer.getInt(offset + BLOCK_COUNT_OFFSET);
+    }
+
+    private void encode(int descriptorIndex, int offset) {
+        buffer.setInt(offset + LENGTH_OFFSET, fileLengths[descriptorIndex]);
+        for (int k = 0; k < DIRECT_EXTENTS; k++) {
+            int extentOffset = offset + EXTENTS_OFFSET + k * 2 * Integer.BYTES;
+            buffer.setInt(extentOffset, extentStarts[descriptorIndex * DIRECT_EXTENTS + k]);
+            buffer.setInt(extentOffset + Integer.BYTES, extentCounts[descriptorIndex * DIRECT_EXTENTS + k]);
+        }
+        buffer.setInt(offset + INDIRECT_OFFSET, indirectBlocks[descriptorIndex]);
+        buffer.setInt(offset + DOUBLE_INDIRECT_OFFSET, doubleIndirectBlocks[descriptorIndex]);
+        buffer.setInt(offset + BLOCK_COUNT_OFFSET, blockCounts[descriptorIndex]);
+    }
+
+    // bitmap block k of the descriptors in use into buffer
+    private void encodeUsed(int k) {
+        int first = k * buffer.length() * Byte.SIZE;
+        for (int d = first; d < Math.min(size(), first + buffer.length() * Byte.SIZE); d++) {
+            if ((used.get(d / Long.SIZE) & (1L << (d % Long.SIZE))) != 0) {
+                int i = (d - first) / Byte.SIZE;
+                buffer.set(i, buffer.get(i) | (0x80 >>> (d % Byte.SIZE)));
+            }
+        }
+    }
+
+    // the caller marks the descriptor changed after this, which is when a changed bitmap block is written through
+    private void updateUsed(int descriptorIndex) {
+        long bit = 1L << (descriptorIndex % Long.SIZE);
+        boolean inUse = extentStarts[descriptorIndex * DIRECT_EXTENTS] != 0;
+        long word = inUse
+                ? used.getAndAccumulate(descriptorIndex / Long.SIZE, bit, (w, b) -> w | b)
+                : used.getAndAccumulate(descriptorIndex / Long.SIZE, bit, (w, b) -> w & ~b);
+        if (usedBlocks > 0 && ((word & bit) != 0) != inUse) {
+            usedChanged(descriptorIndex);
+        }
+    }
+
+    private synchronized void usedChanged(int descriptorIndex) {
+        dirtyBlocks.set(descriptorBlocks + descriptorIndex / (buffer.length() * Byte.SIZE));
+    }
+
+    private int findFree(int from, int to) {
+        for (int k = from; k < to; ) {
+            int i = k / Long.SIZE;
+            int end = Math.min(to, (i + 1) * Long.SIZE);
+            // bits from k up to end, counted from the low end of the word
+            long mask = (-1L >>> (Long.SIZE - (end - k))) << (k % Long.SIZE);
+            long free = ~used.get(i) & mask;
+            if (free != 0) {
+                return i * Long.SIZE + Long.numberOfTrailingZeros(free);
+            }
+            k = end;
+        }
+        return -1;
+    }
+
+    private synchronized void changed(int descriptorIndex) {
+        dirtyBlocks.set(descriptorIndex / descriptorsPerBlock);
+        if (writeThrough) {
+            flush();
+        }
+    }
+}
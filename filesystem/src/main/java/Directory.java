@@ -0,0 +1,702 @@
+import array.UnsignedByteArray;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+// A directory is a file of fixed-size pages, big-endian ints:
+// page: bytes used by entries | next page | previous page | bucket count | first free page | entry bytes | entries
+// entry: descriptor index | type byte | name length byte | name
+// Entries are placed by linear hashing: with n buckets a name hashes modulo the power of two at or below n,
+// or modulo the next one when its bucket has been split already. Bucket i starts at page i and goes on through
+// the overflow pages chained after it, so a lookup reads page 0 and the chain of one bucket, never its neighbours.
+// Once the entries would fill three quarters of the buckets' first pages, the next bucket in line is split into
+// itself and a new last bucket, whose first page is the next one in the file; an overflow page found there moves
+// elsewhere first. Overflow pages that empty out go on a free list, which chains take their new pages from.
+// Only page 0 keeps the bucket count, the free list and the entry bytes; a free page uses FREE bytes.
+// Callers hold the directory lock; pages go through the IOSystem given, which is the journal. Every change to a
+// directory moves its generation on, so a spliterator reading outside the lock can tell it has gone stale.
+public class Directory {
+    public static final int FILE = 0;
+    public static final int DIRECTORY = 1;
+    public static final int MAX_NAME_LENGTH = 255;
+
+    private static final int USED_OFFSET = 0;
+    private static final int NEXT_OFFSET = 4;
+    private static final int PREVIOUS_OFFSET = 8;
+    private static final int BUCKETS_OFFSET = 12;
+    private static final int FREE_OFFSET = 16;
+    private static final int BYTES_OFFSET = 20;
+    private static final int HEADER_SIZE = 6 * Integer.BYTES;
+    private static final int ENTRY_HEADER_SIZE = Integer.BYTES + 2;
+    // a page holds at least one entry with the longest name
+    private static final int MIN_PAGE_SIZE = HEADER_SIZE + ENTRY_HEADER_SIZE + MAX_NAME_LENGTH;
+    private static final int NO_PAGE = -1;
+    private static final int FREE = -1;
+    // a directory file grows by a quarter at a time, see Pages.append
+    private static final int GROWTH = 4;
+
+    private IOSystem ioSystem;
+    private BlockMap blockMap;
+    private DescriptorTable descriptorTable;
+    private int blockSize;
+    private int pageBlocks;
+    private int pageSize;
+    private int[] generations;
+    private boolean unmounted;
+
+    public Directory(IOSystem ioSystem, BlockMap blockMap, DescriptorTable descriptorTable) {
+        this.ioSystem = ioSystem;
+        this.blockMap = blockMap;
+        this.descriptorTable = descriptorTable;
+        this.blockSize = ioSystem.getBlockSize();
+        this.pageBlocks = pageBlocks(blockSize);
+        this.pageSize = pageBlocks * blockSize;
+        this.generations = new int[descriptorTable.size()];
+    }
+
+    static int pageBlocks(int blockSize) {
+        return (MIN_PAGE_SIZE + blockSize - 1) / blockSize;
+    }
+
+    // null when the directory has no such name
+    public Entry find(int directory, String name) {
+        var pages = new Pages(directory);
+        long location = locate(pages, name);
+        return location == -1 ? null : entry(pages.get(pageOf(location)), offsetOf(location));
+    }
+
+    // false when the disk has no room for the page the entry needs
+    public boolean add(int directory, String name, int descriptorIndex, int type) {
+        var pages = new Pages(directory);
+        if (pages.count == 0) {
+            if (pages.append() == NO_PAGE) {
+                return false;
+            }
+            UnsignedByteArray header = pages.get(0);
+            header.setInt(BUCKETS_OFFSET, 1);
+            header.setInt(FREE_OFFSET, NO_PAGE);
+        }
+
+        if (!insert(pages, home(hash(name), pages.buckets()), new Entry(name, descriptorIndex, type))) {
+            return false;
+        }
+        UnsignedByteArray header = pages.get(0);
+        header.setInt(BYTES_OFFSET, header.getInt(BYTES_OFFSET) + size(name));
+        pages.modified(0);
+
+        pages.write();
+        return true;
+    }
+
+    // null when the directory has no such name
+    public Entry remove(int directory, String name) {
+        var pages = new Pages(directory);
+        long location = locate(pages, name);
+        if (location == -1) {
+            return null;
+        }
+
+        int page = pageOf(location);
+        int offset = offsetOf(location);
+        UnsignedByteArray bytes = pages.get(page);
+        Entry entry = entry(bytes, offset);
+
+        int size = size(bytes, offset);
+        int end = end(bytes);
+        bytes.copyTo(offset + size, bytes, offset, end - offset - size);
+        bytes.fill(end - size, end, 0);
+        bytes.setInt(USED_OFFSET, bytes.getInt(USED_OFFSET) - size);
+        pages.modified(page);
+
+        UnsignedByteArray header = pages.get(0);
+        header.setInt(BYTES_OFFSET, header.getInt(BYTES_OFFSET) - size);
+        pages.modified(0);
+
+        // the first page of a bucket stays, an overflow page left empty goes back on the free list
+        if (bytes.getInt(USED_OFFSET) == 0 && bytes.getInt(PREVIOUS_OFFSET) != NO_PAGE) {
+            unlink(pages, page);
+            free(pages, page);
+        }
+
+        pages.write();
+        return entry;
+    }
+
+    // how many pages splitting the next bucket in line changes, 0 when the directory is not due a split
+    public int splitPages(int directory) {
+        Split split = plan(new Pages(directory));
+        return split == null ? 0 : split.pages();
+    }
+
+    // splits the next bucket in line when the directory is due a split;
+    // false when the disk has no room for the pages it needs, and then every entry stays where it was
+    public boolean split(int directory) {
+        var pages = new Pages(directory);
+        Split split = plan(pages);
+        if (split == null) {
+            return true;
+        }
+
+        // every page the split needs is taken before any entry moves, so running out puts them back on the free list
+        int n = split.n;
+        boolean overflowAtN = split.overflowAtN;
+        if (n == pages.count) {
+            if (pages.append() == NO_PAGE) {
+                return false;
+            }
+        } else if (!overflowAtN) {
+            unlink(pages, n);
+        }
+        var taken = new ArrayList<Integer>();
+        while (taken.size() < split.allocations()) {
+            int page = allocate(pages);
+            if (page == NO_PAGE) {
+                for (int p : taken) {
+                    free(pages, p);
+                }
+                if (!overflowAtN) {
+                    free(pages, n);
+                }
+                pages.write();
+                return false;
+            }
+            taken.add(page);
+        }
+
+        List<Integer> chain = split.chain;
+        if (overflowAtN) {
+            int to = taken.remove(taken.size() - 1);
+            relocate(pages, n, to);
+            chain.replaceAll(page -> page == n ? to : page);
+        }
+
+        var spare = new ArrayDeque<Integer>(chain.subList(1, chain.size()));
+        spare.addAll(taken);
+        fill(pages, chain.get(0), split.staying, spare);
+        fill(pages, n, split.moving, spare);
+        for (int page : spare) {
+            free(pages, page);
+        }
+
+        pages.get(0).setInt(BUCKETS_OFFSET, n + 1);
+        pages.modified(0);
+        pages.write();
+        return true;
+    }
+
+    // entries in page order, read a page at a time; splits by page ranges, so it can feed a parallel stream.
+    // The caller holds lock while this is called; afterwards each page is read under it, and the action runs
+    // outside it. A directory changed since then throws ConcurrentModificationException rather than mixing
+    // entries from before and after
+    public Spliterator<Entry> spliterator(int directory, Lock lock) {
+        var pages = new Pages(directory);
+        return new EntrySpliterator(pages, lock, generations[directory], 0, pages.count);
+    }
+
+    public boolean isEmpty(int directory) {
+        var pages = new Pages(directory);
+        return pages.count == 0 || pages.get(0).getInt(BYTES_OFFSET) == 0;
+    }
+
+    // releases the blocks of a directory that is being destroyed; the journal must not write them later
+    public void free(int directory) {
+        var extent = new Extent();
+        for (int b = 0; b < descriptorTable.getBlockCount(directory); b++) {
+            if (blockMap.find(directory, b, extent)) {
+                ioSystem.discard(extent.getBlockIndex(b));
+            }
+        }
+        blockMap.free(directory);
+        generations[directory]++;
+    }
+
+    // this directory object is being replaced, so nothing read through it is current any more
+    public void unmount() {
+        unmounted = true;
+    }
+
+    // puts the entry in the first page of the bucket's chain with room for it, chaining on a new page when none has;
+    // false when the disk has no room for one
+    private boolean insert(Pages pages, int bucket, Entry entry) {
+        int size = size(entry.getName());
+        int page = bucket;
+        while (pageSize - end(pages.get(page)) < size) {
+            int next = pages.get(page).getInt(NEXT_OFFSET);
+            if (next == NO_PAGE) {
+                next = allocate(pages);
+                if (next == NO_PAGE) {
+                    return false;
+                }
+                link(pages, page, next);
+            }
+            page = next;
+        }
+
+        put(pages.get(page), entry);
+        pages.modified(page);
+        return true;
+    }
+
+    // the split due next, null when the entries still fit three quarters of the buckets' first pages
+    private Split plan(Pages pages) {
+        int n = pages.buckets();
+        if (n == 0 || (long) pages.get(0).getInt(BYTES_OFFSET) * 4 <= (long) n * (pageSize - HEADER_SIZE) * 3) {
+            return null;
+        }
+        int level = 31 - Integer.numberOfLeadingZeros(n);
+        int bucket = n - (1 << level);
+
+        var chain = new ArrayList<Integer>();
+        var staying = new ArrayList<Entry>();
+        var moving = new ArrayList<Entry>();
+        for (int page = bucket; page != NO_PAGE; page = pages.get(page).getInt(NEXT_OFFSET)) {
+            chain.add(page);
+            UnsignedByteArray bytes = pages.get(page);
+            for (int offset = HEADER_SIZE; offset < end(bytes); offset += size(bytes, offset)) {
+                Entry entry = entry(bytes, offset);
+                (home(hash(entry.getName()), n + 1) == n ? moving : staying).add(entry);
+            }
+        }
+
+        boolean overflowAtN = n < pages.count && pages.get(n).getInt(USED_OFFSET) != FREE;
+        return new Split(n, chain, pack(staying), pack(moving), overflowAtN);
+    }
+
+    // the entries laid out first fit on as few pages as that takes, always at least one
+    private List<List<Entry>> pack(List<Entry> entries) {
+        var packed = new ArrayList<List<Entry>>();
+        var room = new ArrayList<Integer>();
+        packed.add(new ArrayList<>());
+        room.add(pageSize - HEADER_SIZE);
+        for (Entry entry : entries) {
+            int size = size(entry.getName());
+            int i = 0;
+            while (i < packed.size() && room.get(i) < size) {
+                i++;
+            }
+            if (i == packed.size()) {
+                packed.add(new ArrayList<>());
+                room.add(pageSize - HEADER_SIZE);
+            }
+            packed.get(i).add(entry);
+            room.set(i, room.get(i) - size);
+        }
+        return packed;
+    }
+
+    // rewrites the chain starting at first with the packed entries, taking its overflow pages from spare
+    private void fill(Pages pages, int first, List<List<Entry>> packed, ArrayDeque<Integer> spare) {
+        int previous = NO_PAGE;
+        int page = first;
+        for (int i = 0; i < packed.size(); i++) {
+            int next = i + 1 < packed.size() ? spare.poll() : NO_PAGE;
+            UnsignedByteArray bytes = pages.get(page);
+            bytes.fill(HEADER_SIZE, pageSize, 0);
+            bytes.setInt(USED_OFFSET, 0);
+            bytes.setInt(NEXT_OFFSET, next);
+            bytes.setInt(PREVIOUS_OFFSET, previous);
+            for (Entry entry : packed.get(i)) {
+                put(bytes, entry);
+            }
+            pages.modified(page);
+            previous = page;
+            page = next;
+        }
+    }
+
+    // moves the overflow page at from to the page to, which is not on any chain
+    private void relocate(Pages pages, int from, int to) {
+        UnsignedByteArray bytes = pages.get(to);
+        pages.get(from).copyTo(0, bytes, 0, pageSize);
+        pages.modified(to);
+
+        int previous = bytes.getInt(PREVIOUS_OFFSET);
+        pages.get(previous).setInt(NEXT_OFFSET, to);
+        pages.modified(previous);
+        int next = bytes.getInt(NEXT_OFFSET);
+        if (next != NO_PAGE) {
+            pages.get(next).setInt(PREVIOUS_OFFSET, to);
+            pages.modified(next);
+        }
+    }
+
+    // an empty page off the free list, or a new one at the end of the file; NO_PAGE when the disk is full
+    private int allocate(Pages pages) {
+        int page = pages.get(0).getInt(FREE_OFFSET);
+        if (page == NO_PAGE) {
+            return pages.append();
+        }
+        unlink(pages, page);
+        return page;
+    }
+
+    // takes the page off its chain or the free list and leaves it empty
+    private void unlink(Pages pages, int page) {
+        UnsignedByteArray bytes = pages.get(page);
+        int next = bytes.getInt(NEXT_OFFSET);
+        int previous = bytes.getInt(PREVIOUS_OFFSET);
+        // only the first free page has nothing before it, the first page of a bucket is never unlinked
+        if (previous == NO_PAGE) {
+            pages.get(0).setInt(FREE_OFFSET, next);
+            pages.modified(0);
+        } else {
+            pages.get(previous).setInt(NEXT_OFFSET, next);
+            pages.modified(previous);
+        }
+        if (next != NO_PAGE) {
+            pages.get(next).setInt(PREVIOUS_OFFSET, previous);
+            pages.modified(next);
+        }
+
+        bytes.setInt(USED_OFFSET, 0);
+        bytes.setInt(NEXT_OFFSET, NO_PAGE);
+        bytes.setInt(PREVIOUS_OFFSET, NO_PAGE);
+        pages.modified(page);
+    }
+
+    // chains an empty page on after the page given
+    private void link(Pages pages, int after, int page) {
+        UnsignedByteArray bytes = pages.get(after);
+        int next = bytes.getInt(NEXT_OFFSET);
+        bytes.setInt(NEXT_OFFSET, page);
+        pages.modified(after);
+        if (next != NO_PAGE) {
+            pages.get(next).setInt(PREVIOUS_OFFSET, page);
+            pages.modified(next);
+        }
+
+        UnsignedByteArray linked = pages.get(page);
+        linked.setInt(NEXT_OFFSET, next);
+        linked.setInt(PREVIOUS_OFFSET, after);
+        pages.modified(page);
+    }
+
+    // puts a page that is on no chain at the head of the free list
+    private void free(Pages pages, int page) {
+        UnsignedByteArray header = pages.get(0);
+        int head = header.getInt(FREE_OFFSET);
+        if (head != NO_PAGE) {
+            pages.get(head).setInt(PREVIOUS_OFFSET, page);
+            pages.modified(head);
+        }
+        header.setInt(FREE_OFFSET, page);
+        pages.modified(0);
+
+        UnsignedByteArray bytes = pages.get(page);
+        bytes.fill(HEADER_SIZE, pageSize, 0);
+        bytes.setInt(USED_OFFSET, FREE);
+        bytes.setInt(NEXT_OFFSET, head);
+        bytes.setInt(PREVIOUS_OFFSET, NO_PAGE);
+        pages.modified(page);
+    }
+
+    // page and offset of the entry packed into a long, -1 when there is none
+    private long locate(Pages pages, String name) {
+        int n = pages.buckets();
+        if (n == 0) {
+            return -1;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        for (int page = home(hash(name), n); page != NO_PAGE; page = pages.get(page).getInt(NEXT_OFFSET)) {
+            UnsignedByteArray entries = pages.get(page);
+            for (int offset = HEADER_SIZE; offset < end(entries); offset += size(entries, offset)) {
+                if (matches(entries, offset, bytes)) {
+                    return (long) page << 32 | offset;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int pageOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    private static boolean matches(UnsignedByteArray page, int offset, byte[] name) {
+        if (page.get(offset + Integer.BYTES + 1) != name.length) {
+            return false;
+        }
+        for (int j = 0; j < name.length; j++) {
+            if (page.get(offset + ENTRY_HEADER_SIZE + j) != (name[j] & 0xff)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // writes the entry after the last one on the page, which has room for it
+    private static void put(UnsignedByteArray page, Entry entry) {
+        byte[] bytes = entry.getName().getBytes(StandardCharsets.ISO_8859_1);
+        int offset = end(page);
+        page.setInt(offset, entry.getDescriptorIndex());
+        page.set(offset + Integer.BYTES, entry.getType());
+        page.set(offset + Integer.BYTES + 1, bytes.length);
+        page.copyFrom(offset + ENTRY_HEADER_SIZE, bytes, 0, bytes.length);
+        page.setInt(USED_OFFSET, page.getInt(USED_OFFSET) + ENTRY_HEADER_SIZE + bytes.length);
+    }
+
+    private static Entry entry(UnsignedByteArray page, int offset) {
+        return new Entry(name(page, offset), page.getInt(offset), page.get(offset + Integer.BYTES));
+    }
+
+    private static String name(UnsignedByteArray page, int offset) {
+        int length = page.get(offset + Integer.BYTES + 1);
+        return page.slice(offset + ENTRY_HEADER_SIZE, offset + ENTRY_HEADER_SIZE + length).toAsciiString();
+    }
+
+    private static int size(UnsignedByteArray page, int offset) {
+        return ENTRY_HEADER_SIZE + page.get(offset + Integer.BYTES + 1);
+    }
+
+    private static int size(String name) {
+        return ENTRY_HEADER_SIZE + name.length();
+    }
+
+    // a free page ends before its header does, so it reads as holding no entries
+    private static int end(UnsignedByteArray page) {
+        return HEADER_SIZE + page.getInt(USED_OFFSET);
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    // the bucket a hash belongs to when the directory has n buckets
+    private static int home(int hash, int n) {
+        int level = 31 - Integer.numberOfLeadingZeros(n);
+        int bucket = hash & ((1 << level) - 1);
+        return bucket < n - (1 << level) ? hash & ((2 << level) - 1) : bucket;
+    }
+
+    // bucket n split off the chain given; the entries of both halves are packed already
+    private static class Split {
+        private final int n;
+        private final List<Integer> chain;
+        private final List<List<Entry>> staying;
+        private final List<List<Entry>> moving;
+        // whether page n is an overflow page that has to move, rather than free or past the end of the file
+        private final boolean overflowAtN;
+
+        private Split(int n, List<Integer> chain, List<List<Entry>> staying, List<List<Entry>> moving,
+                boolean overflowAtN) {
+            this.n = n;
+            this.chain = chain;
+            this.staying = staying;
+            this.moving = moving;
+            this.overflowAtN = overflowAtN;
+        }
+
+        // pages beyond the chain and page n, one more when the overflow page at n needs somewhere to go
+        private int allocations() {
+            return Math.max(0, staying.size() + moving.size() - chain.size() - 1) + (overflowAtN ? 1 : 0);
+        }
+
+        private int releases() {
+            return Math.max(0, chain.size() + 1 - staying.size() - moving.size());
+        }
+
+        // page 0, page n and the pages around what was there, the chain,
+        // and every page taken from or put on the free list together with its neighbour there
+        private int pages() {
+            return 4 + chain.size() + 2 * (allocations() + releases());
+        }
+    }
+
+    // the pages one operation reads and changes, written back together when it is done
+    private class Pages {
+        private final int directory;
+        private final Map<Integer, UnsignedByteArray> loaded;
+        private final BitSet modified;
+        private final Extent extent;
+        private int count;
+
+        private Pages(int directory) {
+            this.directory = directory;
+            this.loaded = new HashMap<>();
+            this.modified = new BitSet();
+            this.extent = new Extent();
+            this.count = descriptorTable.getFileLength(directory) / pageSize;
+        }
+
+        private int buckets() {
+            return count == 0 ? 0 : get(0).getInt(BUCKETS_OFFSET);
+        }
+
+        private UnsignedByteArray get(int i) {
+            return loaded.computeIfAbsent(i, this::read);
+        }
+
+        // a page that is only looked at once, so it is not kept
+        private UnsignedByteArray read(int i) {
+            var page = new UnsignedByteArray(pageSize);
+            for (int b = 0; b < pageBlocks; b++) {
+                ioSystem.readBlock(blockIndex(i * pageBlocks + b), page.slice(b * blockSize, (b + 1) * blockSize));
+            }
+            return page;
+        }
+
+        private void modified(int i) {
+            modified.set(i);
+        }
+
+        // adds an empty page on no chain at the end of the file, NO_PAGE when the disk is full.
+        // Blocks are mapped a quarter of the file ahead, so a large directory is a few long extents
+        // rather than one per page, which would run out of extent slots
+        private int append() {
+            int missing = (count + 1) * pageBlocks - descriptorTable.getBlockCount(directory);
+            int ahead = count / GROWTH * pageBlocks;
+            while (missing > 0) {
+                int mapped = blockMap.append(directory, missing + ahead);
+                if (mapped <= 0) {
+                    return NO_PAGE;
+                }
+                missing -= mapped;
+                ahead = 0;
+            }
+
+            descriptorTable.setFileLength(directory, (count + 1) * pageSize);
+            var page = new UnsignedByteArray(pageSize);
+            page.setInt(NEXT_OFFSET, NO_PAGE);
+            page.setInt(PREVIOUS_OFFSET, NO_PAGE);
+            loaded.put(count, page);
+            modified.set(count);
+            return count++;
+        }
+
+        private void write() {
+            for (int i = modified.nextSetBit(0); i != -1; i = modified.nextSetBit(i + 1)) {
+                UnsignedByteArray page = loaded.get(i);
+                for (int b = 0; b < pageBlocks; b++) {
+                    ioSystem.writeBlock(blockIndex(i * pageBlocks + b), page.slice(b * blockSize, (b + 1) * blockSize));
+                }
+            }
+            if (!modified.isEmpty()) {
+                generations[directory]++;
+            }
+            modified.clear();
+        }
+
+        private int blockIndex(int blockNumber) {
+            if (!extent.contains(blockNumber)) {
+                blockMap.find(directory, blockNumber, extent);
+            }
+            return extent.getBlockIndex(blockNumber);
+        }
+    }
+
+    private class EntrySpliterator implements Spliterator<Entry> {
+        // each split reads through its own, they are not shared between threads
+        private final Pages pages;
+        private final Lock lock;
+        private final int generation;
+        private int next;
+        private int end;
+        private UnsignedByteArray page;
+        private int offset;
+
+        private EntrySpliterator(Pages pages, Lock lock, int generation, int next, int end) {
+            this.pages = pages;
+            this.lock = lock;
+            this.generation = generation;
+            this.next = next;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Entry> action) {
+            while (page == null || offset >= end(page)) {
+                if (next == end) {
+                    return false;
+                }
+                lock.lock();
+                try {
+                    checkGeneration();
+                    page = pages.read(next++);
+                } finally {
+                    lock.unlock();
+                }
+                offset = HEADER_SIZE;
+            }
+            action.accept(entry(page, offset));
+            offset += size(page, offset);
+            return true;
+        }
+
+        // the page being read stays here, the first half of the ones not read yet goes to the new one
+        @Override
+        public Spliterator<Entry> trySplit() {
+            if (end - next < 2) {
+                return null;
+            }
+            int middle = (next + end) >>> 1;
+            lock.lock();
+            try {
+                checkGeneration();
+                var prefix = new EntrySpliterator(new Pages(pages.directory), lock, generation, next, middle);
+                next = middle;
+                return prefix;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // in pages, how many entries they hold is not known before reading them
+        @Override
+        public long estimateSize() {
+            return end - next;
+        }
+
+        @Override
+        public int characteristics() {
+            return DISTINCT | NONNULL;
+        }
+
+        private void checkGeneration() {
+            if (unmounted || generations[pages.directory] != generation) {
+                throw new ConcurrentModificationException("Directory changed while its entries were read");
+            }
+        }
+    }
+
+    public static class Entry {
+        private final String name;
+        private final int descriptorIndex;
+        private final int type;
+
+        public Entry(String name, int descriptorIndex, int type) {
+            this.name = name;
+            this.descriptorIndex = descriptorIndex;
+            this.type = type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getDescriptorIndex() {
+            return descriptorIndex;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public boolean isDirectory() {
+            return type == DIRECTORY;
+        }
+    }
+}
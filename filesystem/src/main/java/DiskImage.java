@@ -0,0 +1,226 @@
+import array.UnsignedByteArray;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Scanner;
+import java.util.zip.CRC32;
+
+public class DiskImage {
+    static final int MAGIC = 0x4653494d; // "FSIM"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 7 * Integer.BYTES;
+    // version 1 had no generation
+    private static final int V1_HEADER_SIZE = 6 * Integer.BYTES;
+    // stamped on an image while a checkpoint rewrites it, so one cut short is not loaded
+    private static final int INCOMPLETE = -1;
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private DiskImage() {
+    }
+
+    // layout: header | crc32 per block | block data, all big-endian
+    // header: magic | version | block size | block count | directory length | generation | crc32
+    public static void save(IOSystem ioSystem, int directoryLength, int generation, Path path) throws IOException {
+        int length = ioSystem.getLength();
+        int blockSize = ioSystem.getBlockSize();
+
+        try (var channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header(length, blockSize, directoryLength, generation), 0);
+
+            long dataOffset = dataOffset(HEADER_SIZE, length);
+            ByteBuffer checksums = ByteBuffer.allocate(length * Integer.BYTES);
+            int blocksPerChunk = Math.max(1, CHUNK_SIZE / blockSize);
+            byte[] chunk = new byte[blocksPerChunk * blockSize];
+            var crc = new CRC32();
+
+            for (int first = 0; first < length; first += blocksPerChunk) {
+                int count = Math.min(blocksPerChunk, length - first);
+                for (int j = 0; j < count; j++) {
+                    ioSystem.readBlock(first + j, UnsignedByteArray.wrap(chunk, j * blockSize, blockSize));
+                    crc.reset();
+                    crc.update(chunk, j * blockSize, blockSize);
+                    checksums.putInt((int) crc.getValue());
+                }
+                writeFully(channel, ByteBuffer.wrap(chunk, 0, count * blockSize),
+                        dataOffset + (long) first * blockSize);
+            }
+
+            checksums.flip();
+            writeFully(channel, checksums, HEADER_SIZE);
+        }
+    }
+
+    // rewrites only the given blocks of the image at path, which must hold generation - 1 of this disk;
+    // false when it does not, and the caller has to save the whole disk instead
+    public static boolean checkpoint(IOSystem ioSystem, int[] blocks, int directoryLength, int generation, Path path)
+            throws IOException {
+        int length = ioSystem.getLength();
+        int blockSize = ioSystem.getBlockSize();
+        if (!Files.exists(path)) {
+            return false;
+        }
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long dataOffset = dataOffset(HEADER_SIZE, length);
+            if (channel.size() != dataOffset + (long) length * blockSize || channel.read(header, 0) != HEADER_SIZE
+                    || !isValidHeader(header, HEADER_SIZE) || header.getInt(4) != VERSION
+                    || header.getInt(8) != blockSize || header.getInt(12) != length
+                    || header.getInt(20) != generation - 1) {
+                return false;
+            }
+
+            writeFully(channel, header(length, blockSize, directoryLength, INCOMPLETE), 0);
+            channel.force(false);
+
+            int blocksPerChunk = Math.max(1, CHUNK_SIZE / blockSize);
+            byte[] chunk = new byte[blocksPerChunk * blockSize];
+            ByteBuffer checksums = ByteBuffer.allocate(blocksPerChunk * Integer.BYTES);
+            var crc = new CRC32();
+
+            // adjacent blocks go out in one write
+            for (int k = 0; k < blocks.length; ) {
+                int first = blocks[k];
+                int count = 1;
+                while (k + count < blocks.length && count < blocksPerChunk && blocks[k + count] == first + count) {
+                    count++;
+                }
+
+                checksums.clear();
+                for (int j = 0; j < count; j++) {
+                    ioSystem.readBlock(first + j, UnsignedByteArray.wrap(chunk, j * blockSize, blockSize));
+                    crc.reset();
+                    crc.update(chunk, j * blockSize, blockSize);
+                    checksums.putInt((int) crc.getValue());
+                }
+                writeFully(channel, ByteBuffer.wrap(chunk, 0, count * blockSize),
+                        dataOffset + (long) first * blockSize);
+                writeFully(channel, checksums.flip(), HEADER_SIZE + (long) first * Integer.BYTES);
+                k += count;
+            }
+
+            channel.force(false);
+            writeFully(channel, header(length, blockSize, directoryLength, generation), 0);
+            channel.force(false);
+            return true;
+        }
+    }
+
+    // the generation of a binary image, 0 for one saved before images had generations
+    public static int generation(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            return header.getInt(4) == 1 ? 0 : header.getInt(20);
+        }
+    }
+
+    public static boolean isBinary(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            return channel.read(magic, 0) == Integer.BYTES && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    public static void exportText(IOSystem ioSystem, int directoryLength, Path path) throws IOException {
+        var buffer = new UnsignedByteArray(ioSystem.getBlockSize());
+
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            writer.write(String.format("%d\n", directoryLength));
+
+            for (int i = 0; i < ioSystem.getLength(); i++) {
+                ioSystem.readBlock(i, buffer);
+                for (int j = 0; j < buffer.length(); j++) {
+                    writer.write(String.format("%-3d ", buffer.get(j)));
+                }
+                writer.write("\n");
+            }
+        }
+    }
+
+    // reads an export into memory, so it can be checked before it replaces anything;
+    // the directory length on its first line is the root descriptor's, which the disk holds anyway
+    public static MemoryIOSystem importText(Path path, int length, int blockSize) throws IOException {
+        var ioSystem = new MemoryIOSystem(length, blockSize);
+        var buffer = new UnsignedByteArray(blockSize);
+
+        try (var reader = new Scanner(path)) {
+            if (reader.hasNextLine()) {
+                reader.nextLine();
+            }
+
+            int i = 0;
+            while (reader.hasNextLine() && i < length) {
+                String[] tokens = reader.nextLine().trim().split(" +");
+                for (int j = 0; j < tokens.length && j < buffer.length(); j++) {
+                    if (!tokens[j].isEmpty()) {
+                        buffer.set(j, Integer.parseInt(tokens[j]));
+                    }
+                }
+                ioSystem.writeBlock(i, buffer);
+                i++;
+            }
+
+            return ioSystem;
+        }
+    }
+
+    static long dataOffset(int headerSize, int length) {
+        return headerSize + (long) length * Integer.BYTES;
+    }
+
+    private static ByteBuffer header(int length, int blockSize, int directoryLength, int generation) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(blockSize).putInt(length).putInt(directoryLength)
+                .putInt(generation);
+
+        var crc = new CRC32();
+        crc.update(header.array(), 0, header.position());
+        header.putInt((int) crc.getValue());
+
+        return header.flip();
+    }
+
+    // returns the size of the header, which depends on the version
+    static int checkHeader(ByteBuffer header, int length, int blockSize) throws IOException {
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a disk image");
+        }
+
+        int version = header.getInt(4);
+        if (version != 1 && version != VERSION) {
+            throw new IOException(String.format("Unsupported disk image version %d", version));
+        }
+        int headerSize = version == 1 ? V1_HEADER_SIZE : HEADER_SIZE;
+        if (!isValidHeader(header, headerSize)) {
+            throw new IOException("Disk image header is corrupted");
+        }
+        if (version != 1 && header.getInt(20) == INCOMPLETE) {
+            throw new IOException("Disk image was left behind by a checkpoint that did not finish");
+        }
+        if (header.getInt(8) != blockSize || header.getInt(12) != length) {
+            throw new IOException(String.format("Disk image has %d blocks of %d bytes, expected %d blocks of %d bytes",
+                    header.getInt(12), header.getInt(8), length, blockSize));
+        }
+
+        return headerSize;
+    }
+
+    private static boolean isValidHeader(ByteBuffer header, int headerSize) {
+        var crc = new CRC32();
+        crc.update(header.array(), 0, headerSize - Integer.BYTES);
+        return (int) crc.getValue() == header.getInt(headerSize - Integer.BYTES);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
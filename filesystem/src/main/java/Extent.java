@@ -0,0 +1,36 @@
+// a run of count consecutive disk blocks starting at start, holding file blocks from fileBlock on
+public class Extent {
+    private int fileBlock;
+    private int start;
+    private int count;
+
+    public void set(int fileBlock, int start, int count) {
+        this.fileBlock = fileBlock;
+        this.start = start;
+        this.count = count;
+    }
+
+    public void clear() {
+        set(0, 0, 0);
+    }
+
+    public boolean contains(int blockNumber) {
+        return blockNumber >= fileBlock && blockNumber < fileBlock + count;
+    }
+
+    public int getBlockIndex(int blockNumber) {
+        return start + blockNumber - fileBlock;
+    }
+
+    public int getFileBlock() {
+        return fileBlock;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,27 @@
+// why a FileSystem call failed; FileSystem.lastFailure gives the one of the calling thread's last failed call
+public enum Failure {
+    // a name that is too long, or . or ..
+    INVALID_NAME,
+    // the path, or a directory on the way, is missing
+    NOT_FOUND,
+    ALREADY_EXISTS,
+    IS_DIRECTORY,
+    DIRECTORY_NOT_EMPTY,
+    // the file is open, so it cannot be opened again or destroyed
+    ALREADY_OPEN,
+    NO_FREE_DESCRIPTOR,
+    // the disk has no block for what the call needs
+    NO_SPACE,
+    // the file has used every extent slot its descriptor can reach, so a write stopped short
+    FILE_TOO_LARGE,
+    TOO_MANY_OPEN_FILES,
+    // a handle that was never handed out
+    BAD_HANDLE,
+    // a handle that has been closed
+    NOT_OPEN,
+    NEGATIVE_COUNT,
+    POSITION_OUT_OF_RANGE,
+    NOT_FORMATTED,
+    // the image file could not be read or written
+    IO_ERROR
+}
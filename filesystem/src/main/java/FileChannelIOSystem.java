@@ -0,0 +1,138 @@
+import array.UnsignedByteArray;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A disk in a plain file, read and written with positional calls through a direct buffer of each thread,
+// so a run of blocks is one system call and no mapping is kept. Threads do not share a position.
+public class FileChannelIOSystem extends IOSystem implements Closeable {
+    private final FileChannel channel;
+    private final int length;
+    private final int blockSize;
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    public FileChannelIOSystem(Path path, int length, int blockSize) throws IOException {
+        this.length = length;
+        this.blockSize = blockSize;
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            long size = checkSize(path, channel.size(), length, blockSize);
+            if (channel.size() == 0) {
+                // the rest of a new disk reads as zeros
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(blockSize));
+        trackDirtyBlocks(length);
+    }
+
+    // the size a disk of length blocks has; an existing file of any other size is someone else's disk
+    static long checkSize(Path path, long existingSize, int length, int blockSize) throws IOException {
+        long size = (long) length * blockSize;
+        if (existingSize != 0 && existingSize != size) {
+            throw new IOException(String.format(
+                    "Disk image %s has %d bytes, expected %d (%d blocks of %d bytes)",
+                    path, existingSize, size, length, blockSize));
+        }
+        return size;
+    }
+
+    @Override
+    public void readBlock(int i, UnsignedByteArray p) {
+        read(i, p);
+    }
+
+    @Override
+    public void writeBlock(int i, UnsignedByteArray p) {
+        write(i, p);
+        markDirty(i);
+    }
+
+    @Override
+    public void readBlocks(int first, int count, UnsignedByteArray p) {
+        read(first, p.slice(0, count * blockSize));
+    }
+
+    @Override
+    public void writeBlocks(int first, int count, UnsignedByteArray p) {
+        write(first, p.slice(0, count * blockSize));
+        markDirty(first, count);
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public void flush() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private void read(int first, UnsignedByteArray p) {
+        ByteBuffer buffer = buffer(p.length());
+        long position = (long) first * blockSize;
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    throw new IOException("Unexpected end of disk at block " + first);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        p.asByteBuffer().put(buffer);
+    }
+
+    private void write(int first, UnsignedByteArray p) {
+        ByteBuffer buffer = buffer(p.length());
+        buffer.put(p.asByteBuffer()).flip();
+        long position = (long) first * blockSize;
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // this thread's buffer, cleared and limited to size; grown when a longer run comes along
+    private ByteBuffer buffer(int size) {
+        ByteBuffer buffer = buffers.get();
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size);
+            buffers.set(buffer);
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+}
@@ -1,439 +1,1030 @@
 import array.UnsignedByteArray;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class FileSystem {
-    private IOSystem ioSystem;
+    // every block the file system reads or writes goes through the cache
+    private IOSystem disk;
+    // the disk itself, or the image a binary init loads onto it block by block
+    private IOSystem device;
+    private LazyIOSystem image;
+    private BlockCache cache;
+    // directory, descriptor, bitmap and extent blocks go through the journal on their way to the cache
+    private Journal journal;
+    private Superblock superblock;
     private Bitmap bitmap;
-    private OpenFileTable[] openFileTables;
-    private UnsignedByteArray buffer;
-    private static final int MAX_OPEN_FILES = 4;
-    private static final int DESCRIPTOR_SIZE = 4;
-    private static final int FILENAME_SIZE = 4;
-    static final int NOT_ALLOCATED_INDEX = 255;
+    private DescriptorTable descriptorTable;
+    private Directory directories;
+    private DentryCache dentries;
+    private BlockMap blockMap;
+    private HandleTable handles;
+    private int blockSize;
+    // how many blocks ahead of a sequential reader are prefetched, limited so read-ahead cannot flood a small cache
+    private int readAheadBlocks;
+    // the image the disk last matched block for block, so a checkpoint to it only writes what changed since
+    private Path imagePath;
+    private int imageGeneration;
+    private boolean writeThrough;
+    // every directory and the dentry cache; file operations lock the stripe of their descriptor instead
+    private ReentrantReadWriteLock directoryLock;
+    private ReentrantLock[] fileLocks;
+    // why the last call of each thread failed and the message for it; null after a call that did not fail
+    private ThreadLocal<Pair<Failure, String>> lastFailure;
+    private static final int LOCK_STRIPES = 64;
+    static final int DEFAULT_MAX_OPEN_FILES = 1024;
+    static final int DEFAULT_CACHE_BLOCKS = 1024;
+    private static final int READ_AHEAD_BLOCKS = 8;
+    // a growing file maps this fraction of its size ahead
+    private static final int GROWTH = 4;
+    private static final int DENTRY_CACHE_SIZE = 4096;
+    private static final int ROOT = 0;
+    static final int NOT_ALLOCATED_INDEX = -1;
 
 
     public FileSystem(int length, int bufferSize) {
-        ioSystem = new IOSystem(length, bufferSize);
-        bitmap = new Bitmap(ioSystem);
-        openFileTables = new OpenFileTable[MAX_OPEN_FILES];
-        buffer = new UnsignedByteArray(bufferSize);
-
-        for (int i = 0; i < MAX_OPEN_FILES; i++) {
-            openFileTables[i] = new OpenFileTable(bufferSize);
-        }
-        openFileTables[0].init(0, 0);
+        this(new MemoryIOSystem(length, bufferSize));
+    }
 
-        setDescriptor(0, new Descriptor(0,
-                new int[]{NOT_ALLOCATED_INDEX, NOT_ALLOCATED_INDEX, NOT_ALLOCATED_INDEX}));
+    public FileSystem(IOSystem ioSystem) {
+        this(ioSystem, false);
+    }
 
+    // write-through pushes every change to the IOSystem immediately,
+    // write-back keeps it in the block cache until the block is evicted or sync is called
+    public FileSystem(IOSystem ioSystem, boolean writeThrough) {
+        this(ioSystem, writeThrough, DEFAULT_MAX_OPEN_FILES);
     }
 
+    // maxOpenFiles counts handle 0, which is never handed out
+    public FileSystem(IOSystem ioSystem, boolean writeThrough, int maxOpenFiles) {
+        this(ioSystem, writeThrough, maxOpenFiles, DEFAULT_CACHE_BLOCKS);
+    }
 
-    public boolean save(String filename) {
-        for (int i = 1; i < openFileTables.length; i++) {
-            if (openFileTables[i].getDescriptorIndex() != -1) {
-                close(i);
+    // cacheBlocks is how many blocks the cache keeps in memory
+    public FileSystem(IOSystem ioSystem, boolean writeThrough, int maxOpenFiles, int cacheBlocks) {
+        this.disk = ioSystem;
+        this.device = ioSystem;
+        this.cache = new BlockCache(ioSystem, cacheBlocks, writeThrough);
+        this.writeThrough = writeThrough;
+        superblock = new Superblock(cache);
+        boolean formatted = superblock.read();
+        if (!formatted) {
+            // anything else in block 0 is a disk of another geometry or format, which formatting would wipe
+            if (!superblock.isBlank()) {
+                throw new IllegalArgumentException(String.format(
+                        "Block 0 holds no file system of %d blocks of %d bytes and is not blank",
+                        ioSystem.getLength(), ioSystem.getBlockSize()));
             }
+            superblock.format();
+        }
+        mount();
+        blockSize = ioSystem.getBlockSize();
+        readAheadBlocks = Math.min(READ_AHEAD_BLOCKS, cache.getCapacity() / 4);
+        handles = new HandleTable(blockSize, maxOpenFiles, descriptorTable.size());
+        directoryLock = new ReentrantReadWriteLock();
+        fileLocks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            fileLocks[i] = new ReentrantLock();
         }
+        dentries = new DentryCache(DENTRY_CACHE_SIZE);
+        lastFailure = new ThreadLocal<>();
+
+        if (!formatted) {
+            beginUpdate();
+            try {
+                getDescriptor(ROOT).init(NOT_ALLOCATED_INDEX);
+            } finally {
+                endUpdate();
+            }
+            journal.commit();
+        }
+    }
 
-        lseek(0, 0);
 
-        try (var writer = new FileWriter(filename)) {
-            writer.write(String.format("%d\n", openFileTables[0].getLength()));
+    public boolean save(String filename) {
+        lastFailure.set(null);
+        lockAll();
+        try {
+            closeAll();
+            Path path = Path.of(filename);
+            // blocks written from here on are caught by the next checkpoint
+            device.drainDirtyBlocks();
+            releaseImage(path);
+            DiskImage.save(cache, getDescriptor(ROOT).getFileLength(), imageGeneration + 1, path);
+            imagePath = path;
+            imageGeneration++;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail(Failure.IO_ERROR, e.toString());
+            return false;
+        } finally {
+            unlockAll();
+        }
+    }
 
-            for (int i = 0; i < ioSystem.getLength(); i++) {
-                ioSystem.readBlock(i, buffer);
-                for (int j = 0; j < buffer.length(); j++) {
-                    writer.write(String.format("%-3d ", buffer.get(j)));
-                }
-                writer.write("\n");
+    // brings the image written by the last save or checkpoint up to date by rewriting only the blocks
+    // changed since; open files stay open. Any other file gets the whole disk, like save
+    public boolean checkpoint(String filename) {
+        lastFailure.set(null);
+        lockAll();
+        try {
+            Path path = Path.of(filename);
+            persistFileLengths();
+            journal.flush();
+
+            int[] blocks = device.drainDirtyBlocks();
+            int directoryLength = getDescriptor(ROOT).getFileLength();
+            if (blocks == null || !path.equals(imagePath)
+                    || !DiskImage.checkpoint(device, blocks, directoryLength, imageGeneration + 1, path)) {
+                releaseImage(path);
+                DiskImage.save(cache, directoryLength, imageGeneration + 1, path);
             }
+            imagePath = path;
+            imageGeneration++;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail(Failure.IO_ERROR, e.toString());
+            return false;
+        } finally {
+            unlockAll();
+        }
+    }
 
+    public boolean export(String filename) {
+        lastFailure.set(null);
+        lockAll();
+        try {
+            closeAll();
+            releaseImage(Path.of(filename));
+            DiskImage.exportText(cache, getDescriptor(ROOT).getFileLength(), Path.of(filename));
             return true;
         } catch (IOException e) {
             e.printStackTrace();
+            fail(Failure.IO_ERROR, e.toString());
             return false;
+        } finally {
+            unlockAll();
         }
     }
 
+    // a binary image is not copied up front: mounting reads the superblock, bitmap, descriptors and directory
+    // from it, and every other block is read the first time it is used, so init takes the same time on any disk
     public boolean init(String filename) {
-        try (var reader = new Scanner(new File(filename))) {
-            int directoryLength = 0;
-            if (reader.hasNextLine()) {
-                directoryLength = Integer.parseInt(reader.nextLine());
-            }
-
-            int i = 0;
-            while (reader.hasNextLine()) {
-                Integer[] block = Arrays.stream(reader.nextLine().split(" "))
-                        .filter(s -> !s.equals("")).map(Integer::parseInt).toArray(Integer[]::new);
-                for (int j = 0; j < block.length; j++) {
-                    buffer.set(j, block[j]);
+        lastFailure.set(null);
+        lockAll();
+        try {
+            // the image replaces everything, but nothing may be half written when it does
+            journal.commit();
+            Path path = Path.of(filename);
+            boolean binary = DiskImage.isBinary(path);
+
+            // block 0 of the image is checked before the disk is touched, so a bad image leaves everything mounted
+            var superblockBlock = new UnsignedByteArray(blockSize);
+            LazyIOSystem lazyImage = null;
+            IOSystem text = null;
+            if (binary) {
+                lazyImage = new LazyIOSystem(disk, path);
+                try {
+                    lazyImage.readImageBlock(Superblock.BLOCK_INDEX, superblockBlock);
+                } catch (IOException e) {
+                    lazyImage.close();
+                    throw e;
                 }
-                ioSystem.writeBlock(i, buffer);
-                i++;
+            } else {
+                text = DiskImage.importText(path, disk.getLength(), blockSize);
+                text.readBlock(Superblock.BLOCK_INDEX, superblockBlock);
+            }
+            if (!Superblock.describes(superblockBlock, disk.getLength(), blockSize)) {
+                fail(Failure.NOT_FORMATTED, "err: Disk image is not formatted");
+                if (lazyImage != null) {
+                    lazyImage.close();
+                }
+                return false;
             }
 
-            bitmap.refresh();
-            openFileTables[0].init(0, directoryLength);
-
+            attach(lazyImage);
+            if (text != null) {
+                for (int i = 0; i < text.getLength(); i++) {
+                    text.readBlock(i, superblockBlock);
+                    cache.writeBlock(i, superblockBlock);
+                }
+            }
+            superblock.read();
+            mount();
+            handles.reset(descriptorTable.size());
+            dentries.clear();
+
+            // the disk now matches the image, so a checkpoint to it starts from here
+            cache.flush();
+            device.drainDirtyBlocks();
+            imagePath = binary ? path : null;
+            imageGeneration = binary ? DiskImage.generation(path) : 0;
             return true;
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
             e.printStackTrace();
+            fail(Failure.IO_ERROR, e.toString());
             return false;
+        } finally {
+            unlockAll();
         }
     }
 
+    // puts the disk, or an image loading onto it, behind a new cache; nothing cached from the old contents is kept
+    private void attach(LazyIOSystem lazyImage) throws IOException {
+        cache.flush();
+        if (image != null) {
+            image.close();
+        }
+        image = lazyImage;
+        device = lazyImage != null ? lazyImage : disk;
+        cache = new BlockCache(device, cache.getCapacity(), writeThrough);
+        superblock = new Superblock(cache);
+    }
 
-    public boolean create(UnsignedByteArray fName) {
-
-        fName = fName.fillToLength(FILENAME_SIZE);
+    // the file a lazy init still reads from cannot be overwritten before every block is in
+    private void releaseImage(Path path) {
+        if (image != null && image.getPath().toAbsolutePath().normalize().equals(path.toAbsolutePath().normalize())) {
+            image.loadAll();
+        }
+    }
 
-        if (searchDirectory(fName) != -1) {
-            System.out.println("err: File already exists");
-            return false;
+    // the bitmap and descriptor table are sized from the superblock, so they are rebuilt whenever it is read;
+    // a write-through file system commits every operation on its own
+    private void mount() {
+        journal = new Journal(cache, superblock, writeThrough);
+        journal.replay();
+        bitmap = new Bitmap(journal, superblock, writeThrough);
+        descriptorTable = new DescriptorTable(journal, superblock, writeThrough);
+        blockMap = new BlockMap(journal, bitmap, descriptorTable);
+        if (directories != null) {
+            directories.unmount();
         }
+        directories = new Directory(journal, blockMap, descriptorTable);
+    }
 
-        int descriptorIndex = getFreeDescriptorIndex();
+    // metadata changes happen between these two, so each operation is committed whole or not at all
+    private void beginUpdate() {
+        journal.begin();
+    }
 
-        if (descriptorIndex == -1) {
-            System.out.println("err: Descriptor is already taken");
-            return false;
+    private void beginUpdate(int directoryPages) {
+        journal.begin(directoryPages);
+    }
+
+    private void endUpdate() {
+        bitmap.flush();
+        descriptorTable.flush();
+        journal.end();
+    }
+
+    public BlockCache getCache() {
+        return cache;
+    }
+
+    public void sync() {
+        lastFailure.set(null);
+        lockAll();
+        try {
+            // the disk holds the whole file system only once the rest of a lazily loaded image is in
+            if (image != null) {
+                image.loadAll();
+            }
+            // files still open keep their length in the handle until they are closed
+            persistFileLengths();
+            bitmap.flush();
+            descriptorTable.flush();
+            journal.flush();
+        } finally {
+            unlockAll();
         }
+    }
 
-        if (!allocDirectory()) {
-            System.out.println("err: Directory is full");
-            return false;
+    private Lock lockFile(int index) {
+        while (true) {
+            int descriptorIndex = handles.get(index).getDescriptorIndex();
+            Lock lock = fileLock(descriptorIndex);
+            lock.lock();
+            // the handle may have been closed and reopened on another file while waiting
+            if (handles.get(index).getDescriptorIndex() == descriptorIndex) {
+                return lock;
+            }
+            lock.unlock();
         }
+    }
 
-        write(0, fName, fName.length());
-        write(0, UnsignedByteArray.fromInt(descriptorIndex), Integer.BYTES);
+    private Lock fileLock(int descriptorIndex) {
+        return fileLocks[descriptorIndex & (LOCK_STRIPES - 1)];
+    }
 
-        setDescriptor(descriptorIndex, new Descriptor(
-                0, new int[]{NOT_ALLOCATED_INDEX, NOT_ALLOCATED_INDEX, NOT_ALLOCATED_INDEX}));
+    private void lockAll() {
+        directoryLock.writeLock().lock();
+        for (ReentrantLock lock : fileLocks) {
+            lock.lock();
+        }
+    }
 
-        return true;
+    private void unlockAll() {
+        for (int i = LOCK_STRIPES - 1; i >= 0; i--) {
+            fileLocks[i].unlock();
+        }
+        directoryLock.writeLock().unlock();
     }
 
-    public boolean destroy(UnsignedByteArray fName) {
-        fName = fName.fillToLength(FILENAME_SIZE);
-        lseek(0, 0);
+    private void closeAll() {
+        for (int i = 1; i < handles.size(); i++) {
+            if (handles.get(i).getDescriptorIndex() != -1) {
+                close(i);
+            }
+        }
+
+        bitmap.flush();
+        descriptorTable.flush();
+        journal.commit();
+    }
 
-        if (searchDirectory(fName) == -1) {
-            System.out.println("err: File not created");
-            return false;
+    // open files keep their length in the handle until they are closed;
+    // one operation per file, since together they may change more descriptor blocks than an operation reserves
+    private void persistFileLengths() {
+        for (int i = 1; i < handles.size(); i++) {
+            int descriptorIndex = handles.get(i).getDescriptorIndex();
+            if (descriptorIndex != -1) {
+                beginUpdate();
+                try {
+                    getDescriptor(descriptorIndex).setFileLength(handles.get(i).getLength());
+                } finally {
+                    endUpdate();
+                }
+            }
         }
-        read(0, buffer, FILENAME_SIZE + Integer.BYTES);
+    }
 
-        int descriptorIndex = buffer.subArray(FILENAME_SIZE, FILENAME_SIZE + Integer.BYTES).toInt();
-        for (int i = 1; i < MAX_OPEN_FILES; i++) {
-            if (openFileTables[i].getDescriptorIndex() == descriptorIndex) {
-                System.out.println("File opened!");
+    // paths are names separated by '/' from the root, the parent directories must exist
+    public boolean create(UnsignedByteArray path) {
+        lastFailure.set(null);
+        return add(path, Directory.FILE);
+    }
+
+    public boolean mkdir(UnsignedByteArray path) {
+        lastFailure.set(null);
+        return add(path, Directory.DIRECTORY);
+    }
+
+    private boolean add(UnsignedByteArray path, int type) {
+        directoryLock.writeLock().lock();
+        try {
+            int directory = addEntry(path, type);
+            if (directory == -1) {
                 return false;
             }
+            // the entry is in either way, a split that cannot run only leaves the directory more crowded
+            splitDirectory(directory);
+            return true;
+        } finally {
+            directoryLock.writeLock().unlock();
         }
+    }
 
-        Descriptor descriptor = getDescriptor(descriptorIndex);
-        descriptor.setFileLength(0);
-        for (int i = 0; i < 3; i++) {
-            int blockIndex = descriptor.getBlockIndex(i);
-            if (blockIndex != NOT_ALLOCATED_INDEX) {
-                bitmap.setBlockIndexFree(blockIndex);
+    // the directory the entry went into, -1 when it was not added
+    private int addEntry(UnsignedByteArray path, int type) {
+        beginUpdate();
+        try {
+            List<String> names = split(path);
+            if (names.isEmpty() || !isValidName(names.get(names.size() - 1))) {
+                fail(Failure.INVALID_NAME, "err: Invalid file name");
+                return -1;
             }
-            descriptor.setBlockIndex(i, 0);
-        }
-        setDescriptor(descriptorIndex, descriptor);
 
-        searchDirectory(fName);
-        write(0, new UnsignedByteArray(FILENAME_SIZE + Integer.BYTES), FILENAME_SIZE + Integer.BYTES);
+            int directory = resolveParent(names);
+            if (directory == -1) {
+                fail(Failure.NOT_FOUND, "err: Directory not found");
+                return -1;
+            }
+
+            String name = names.get(names.size() - 1);
+            if (lookup(directory, name) != null) {
+                fail(Failure.ALREADY_EXISTS, "err: File already exists");
+                return -1;
+            }
+
+            int descriptorIndex = descriptorTable.getFreeDescriptorIndex();
 
-        return true;
+            if (descriptorIndex == -1) {
+                fail(Failure.NO_FREE_DESCRIPTOR, "err: Descriptor is already taken");
+                return -1;
+            }
+
+            if (!directories.add(directory, name, descriptorIndex, type)) {
+                fail(Failure.NO_SPACE, "err: Directory is full");
+                return -1;
+            }
+            getDescriptor(descriptorIndex).init(NOT_ALLOCATED_INDEX);
+            dentries.put(directory, new Directory.Entry(name, descriptorIndex, type));
+
+            return directory;
+        } finally {
+            endUpdate();
+        }
     }
 
-    public int open(UnsignedByteArray fName) {
-        fName = fName.fillToLength(FILENAME_SIZE);
-        lseek(0, 0);
+    // a split is an operation of its own, reserving the pages of the chain it rewrites;
+    // one that would not fit the journal is left for a later add
+    private void splitDirectory(int directory) {
+        int pages = directories.splitPages(directory);
+        if (pages == 0 || !journal.fits(pages)) {
+            return;
+        }
+        beginUpdate(pages);
+        try {
+            directories.split(directory);
+        } finally {
+            endUpdate();
+        }
+    }
 
-        int directoryIndex = searchDirectory(fName);
+    // a directory has to be empty
+    public boolean destroy(UnsignedByteArray path) {
+        lastFailure.set(null);
+        directoryLock.writeLock().lock();
+        beginUpdate();
+        try {
+            List<String> names = split(path);
+            int directory = names.isEmpty() ? -1 : resolveParent(names);
+            Directory.Entry entry = directory == -1 ? null : lookup(directory, names.get(names.size() - 1));
+            if (entry == null) {
+                fail(Failure.NOT_FOUND, "err: File not created");
+                return false;
+            }
 
-        if (directoryIndex == -1) {
-            System.out.println("err: File not already exists");
-            return -1;
+            int descriptorIndex = entry.getDescriptorIndex();
+            if (entry.isDirectory()) {
+                if (!directories.isEmpty(descriptorIndex)) {
+                    fail(Failure.DIRECTORY_NOT_EMPTY, "err: Directory is not empty");
+                    return false;
+                }
+                directories.free(descriptorIndex);
+            } else {
+                if (handles.find(descriptorIndex) != -1) {
+                    fail(Failure.ALREADY_OPEN, "File opened!");
+                    return false;
+                }
+                blockMap.free(descriptorIndex);
+            }
+            getDescriptor(descriptorIndex).init(0);
+
+            directories.remove(directory, entry.getName());
+            dentries.remove(directory, entry.getName());
+
+            return true;
+        } finally {
+            endUpdate();
+            directoryLock.writeLock().unlock();
         }
+    }
 
-        read(0, buffer, FILENAME_SIZE + Integer.BYTES);
-        int descriptorIndex = buffer.subArray(FILENAME_SIZE, FILENAME_SIZE + Integer.BYTES).toInt();
-        Descriptor descriptor = getDescriptor(descriptorIndex);
+    public int open(UnsignedByteArray path) {
+        lastFailure.set(null);
+        directoryLock.readLock().lock();
+        try {
+            Directory.Entry entry = resolve(split(path));
 
-        for (int i = 1; i < MAX_OPEN_FILES; i++) {
-            if (openFileTables[i].getDescriptorIndex() == descriptorIndex) {
-                System.out.println("err: File already opened");
+            if (entry == null) {
+                fail(Failure.NOT_FOUND, "err: File not already exists");
+                return -1;
+            }
+            if (entry.isDirectory()) {
+                fail(Failure.IS_DIRECTORY, "err: Is a directory");
                 return -1;
             }
-        }
 
-        for (int i = 1; i < MAX_OPEN_FILES; i++) {
-            if (openFileTables[i].getDescriptorIndex() == -1) {
-                openFileTables[i].init(descriptorIndex, descriptor.getFileLength());
-                if (descriptor.getFileLength() != 0){
-                    ioSystem.readBlock(descriptor.getBlockIndex(0), openFileTables[i].getBuffer());
+            int descriptorIndex = entry.getDescriptorIndex();
+            Descriptor descriptor = getDescriptor(descriptorIndex);
+
+            // lookups share the directory lock, so claiming a handle needs its own
+            int index;
+            synchronized (handles) {
+                if (handles.find(descriptorIndex) != -1) {
+                    fail(Failure.ALREADY_OPEN, "err: File already opened");
+                    return -1;
                 }
-                return i;
+
+                index = handles.allocate(descriptorIndex);
+            }
+            if (index == -1) {
+                fail(Failure.TOO_MANY_OPEN_FILES, "err: OpenFileTable is full");
+                return -1;
             }
-        }
 
-        System.out.println("err: OpenFileTable is full");
-        return -1;
+            OpenFileTable file = handles.get(index);
+            Lock lock = fileLock(descriptorIndex);
+            lock.lock();
+            try {
+                file.init(descriptorIndex, descriptor.getFileLength());
+            } finally {
+                lock.unlock();
+            }
+            return index;
+        } finally {
+            directoryLock.readLock().unlock();
+        }
     }
 
     public int close(int index) {
-        if (index > 3 || index < 0) {
-            System.out.println("Index out of bound");
+        lastFailure.set(null);
+        if (handles.get(index) == null) {
+            fail(Failure.BAD_HANDLE, "Index out of bound");
             return -1;
         }
 
-        int descriptorIndex = openFileTables[index].getDescriptorIndex();
-        int currentBlock = openFileTables[index].getCurrentBlock();
-        int status = openFileTables[index].getStatus();
+        Lock lock = lockFile(index);
+        try {
+            int descriptorIndex = handles.get(index).getDescriptorIndex();
 
-        if (descriptorIndex != -1) {
-            Descriptor descriptor = getDescriptor(descriptorIndex);
-            descriptor.setFileLength(openFileTables[index].getLength());
-            setDescriptor(descriptorIndex, descriptor);
+            if (descriptorIndex != -1) {
+                beginUpdate();
+                try {
+                    getDescriptor(descriptorIndex).setFileLength(handles.get(index).getLength());
+                } finally {
+                    endUpdate();
+                }
 
-            if (status == 1) {
-                openFileTables[index].init();
+                handles.get(index).init();
+                synchronized (handles) {
+                    handles.release(index, descriptorIndex);
+                }
                 return index;
+            } else {
+                fail(Failure.NOT_OPEN, "err: File is not opened");
+                return -1;
             }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            if (status > 1 || status < -1) {
-                currentBlock--;
-            }
-
-            if (openFileTables[index].isWritten()) {
-                ioSystem.writeBlock(descriptor.getBlockIndex(currentBlock), openFileTables[index].getBuffer());
+    // empty names are skipped, so leading, trailing and doubled slashes do not matter
+    private static List<String> split(UnsignedByteArray path) {
+        var names = new ArrayList<String>();
+        for (String name : path.toAsciiString().split("/")) {
+            if (!name.isEmpty()) {
+                names.add(name);
             }
-
-            openFileTables[index].init();
-            return index;
-        } else {
-            System.out.println("err: File is not opened");
-            return -1;
         }
+        return names;
     }
 
-    private int searchDirectory(UnsignedByteArray fName) {
-        lseek(0, 0);
-        UnsignedByteArray temp = new UnsignedByteArray(8);
-
-        while (openFileTables[0].getCurrentPosition() < openFileTables[0].getLength()) {
-            read(0, temp, FILENAME_SIZE + Integer.BYTES);
+    private static boolean isValidName(String name) {
+        return name.length() <= Directory.MAX_NAME_LENGTH && !name.equals(".") && !name.equals("..");
+    }
 
-            if (fName.equals(temp.subArray(FILENAME_SIZE))) {
-                lseek(0, openFileTables[0].getCurrentPosition() - FILENAME_SIZE - Integer.BYTES);
-                return openFileTables[0].getCurrentPosition();
+    // the directory holding the last name of the path, or -1 when one on the way is missing
+    private int resolveParent(List<String> names) {
+        int directory = ROOT;
+        for (int i = 0; i < names.size() - 1; i++) {
+            Directory.Entry entry = lookup(directory, names.get(i));
+            if (entry == null || !entry.isDirectory()) {
+                return -1;
             }
+            directory = entry.getDescriptorIndex();
         }
-        return -1;
+        return directory;
     }
 
-    private int getFreeDescriptorIndex() {
-        for (int i = 0; i < 6; i++) {
-            ioSystem.readBlock(i + 1, buffer);
-            for (int j = 0; j < buffer.length() / DESCRIPTOR_SIZE; j++) {
-                if (buffer.get(j * DESCRIPTOR_SIZE + 1) == 0)
-                    return (i * buffer.length() / DESCRIPTOR_SIZE) + j;
-            }
+    // the entry the path names, null when it or a directory on the way is missing
+    private Directory.Entry resolve(List<String> names) {
+        if (names.isEmpty()) {
+            return null;
         }
-        return -1;
+        int directory = resolveParent(names);
+        return directory == -1 ? null : lookup(directory, names.get(names.size() - 1));
     }
 
-    private boolean allocDirectory() {
-        lseek(0, 0);
-        UnsignedByteArray temp = new UnsignedByteArray(FILENAME_SIZE);
-        searchDirectory(temp);
+    // the root for an empty path, -1 when the path does not name a directory
+    private int resolveDirectory(List<String> names) {
+        if (names.isEmpty()) {
+            return ROOT;
+        }
+        Directory.Entry entry = resolve(names);
+        return entry != null && entry.isDirectory() ? entry.getDescriptorIndex() : -1;
+    }
 
-        return openFileTables[0].getCurrentPosition() < buffer.length() * 3;
+    // the dentry cache first, the directory's buckets only when it misses
+    private Directory.Entry lookup(int directory, String name) {
+        Directory.Entry entry = dentries.get(directory, name);
+        if (entry == null) {
+            entry = directories.find(directory, name);
+            if (entry != null) {
+                dentries.put(directory, entry);
+            }
+        }
+        return entry;
     }
 
     public int read(int index, UnsignedByteArray memArea, int count) {
-        if (index > 3 || index < 0) {
-            System.out.println("Read: Out of bound exception.");
+        lastFailure.set(null);
+        if (handles.get(index) == null) {
+            fail(Failure.BAD_HANDLE, "Read: Out of bound exception.");
             return -1;
         }
-        if (count < 0) {
-            System.out.println("Read: Count cannot be negative.");
+
+        Lock lock = lockFile(index);
+        try {
+            if (count < 0) {
+                fail(Failure.NEGATIVE_COUNT, "Read: Count cannot be negative.");
+                return -1;
+            }
+            if (handles.get(index).getDescriptorIndex() == -1) {
+                fail(Failure.NOT_OPEN, "Read: Cannot open the file.");
+                return -1;
+            }
+
+            return readFile(handles.get(index), memArea, count, false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // bytes past the end of memArea repeat its last byte
+    public int write(int index, UnsignedByteArray memArea, int count) {
+        lastFailure.set(null);
+        if (handles.get(index) == null) {
+            fail(Failure.BAD_HANDLE, "Write: Out of bound exception.");
             return -1;
         }
 
-        int i = 0;
-        int status = openFileTables[index].getStatus();
-        int descriptorIndex = openFileTables[index].getDescriptorIndex();
-        Descriptor descriptor = getDescriptor(descriptorIndex);
-
-        while ((status <= 0) && i < count
-                && (openFileTables[index].getCurrentPosition() < openFileTables[index].getLength())) {
-            if (status < 0) {
-                if (openFileTables[index].isWritten()) {
-                    ioSystem.writeBlock(descriptor.getBlockIndex(openFileTables[index].getCurrentBlock()), openFileTables[index].getBuffer());
-                    openFileTables[index].setWritten(false);
-                }
-                ioSystem.readBlock(descriptor.getBlockIndex(-1 * status - 1), openFileTables[index].getBuffer());
-                openFileTables[index].setRead(true);
+        Lock lock = lockFile(index);
+        try {
+            if (count < 0) {
+                fail(Failure.NEGATIVE_COUNT, "Write: Cannot write negative amount.");
+                return -1;
             }
-            else if (!openFileTables[index].isRead()) {
-                ioSystem.readBlock(descriptor.getBlockIndex(openFileTables[index].getCurrentBlock()), openFileTables[index].getBuffer());
-                openFileTables[index].setRead(true);
+            if (handles.get(index).getDescriptorIndex() == -1) {
+                fail(Failure.NOT_OPEN, "Write: Cannot open the file.");
+                return -1;
             }
 
-            status = openFileTables[index].readByte(memArea, i);
-            i++;
+            return writeFile(handles.get(index), memArea, count, false);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return i;
+    // reads into each area in turn until one is not filled, so a whole record takes one call and one lock
+    public int readv(int index, UnsignedByteArray[] memAreas) {
+        lastFailure.set(null);
+        if (handles.get(index) == null) {
+            fail(Failure.BAD_HANDLE, "Read: Out of bound exception.");
+            return -1;
+        }
+
+        Lock lock = lockFile(index);
+        try {
+            if (handles.get(index).getDescriptorIndex() == -1) {
+                fail(Failure.NOT_OPEN, "Read: Cannot open the file.");
+                return -1;
+            }
+
+            int total = 0;
+            for (UnsignedByteArray memArea : memAreas) {
+                int n = readFile(handles.get(index), memArea, memArea.length(), false);
+                total += n;
+                if (n < memArea.length()) {
+                    break;
+                }
+            }
+            return total;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public int write(int index, UnsignedByteArray memArea, int count) {
-        if (index > 3 || index < 0) {
-            System.out.println("Write: Out of bound exception.");
+    // writes every area in turn; stops early only when the disk is full or the file can grow no further
+    public int writev(int index, UnsignedByteArray[] memAreas) {
+        lastFailure.set(null);
+        if (handles.get(index) == null) {
+            fail(Failure.BAD_HANDLE, "Write: Out of bound exception.");
             return -1;
         }
-        if (count < 0) {
-            System.out.println("Write: Cannot write negative amount.");
+
+        Lock lock = lockFile(index);
+        try {
+            if (handles.get(index).getDescriptorIndex() == -1) {
+                fail(Failure.NOT_OPEN, "Write: Cannot open the file.");
+                return -1;
+            }
+
+            int total = 0;
+            for (UnsignedByteArray memArea : memAreas) {
+                int n = writeFile(handles.get(index), memArea, memArea.length(), false);
+                total += n;
+                if (n < memArea.length()) {
+                    break;
+                }
+            }
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // like read, but at pos and without moving the handle's position
+    public int pread(int index, UnsignedByteArray memArea, int count, int pos) {
+        lastFailure.set(null);
+        if (handles.get(index) == null) {
+            fail(Failure.BAD_HANDLE, "Read: Out of bound exception.");
             return -1;
         }
-        if (openFileTables[index].getDescriptorIndex() == -1) {
-            System.out.println("Write: Cannot open the file.");
+
+        Lock lock = lockFile(index);
+        try {
+            if (count < 0) {
+                fail(Failure.NEGATIVE_COUNT, "Read: Count cannot be negative.");
+                return -1;
+            }
+            if (handles.get(index).getDescriptorIndex() == -1) {
+                fail(Failure.NOT_OPEN, "Read: Cannot open the file.");
+                return -1;
+            }
+
+            OpenFileTable file = handles.get(index);
+            int position = file.getCurrentPosition();
+            if (!file.seek(pos)) {
+                fail(Failure.POSITION_OUT_OF_RANGE, "position is out of range");
+                return -1;
+            }
+            int n = readFile(file, memArea, count, true);
+            file.seek(position);
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // like write, but at pos and without moving the handle's position; pos may be the end of the file
+    public int pwrite(int index, UnsignedByteArray memArea, int count, int pos) {
+        lastFailure.set(null);
+        if (handles.get(index) == null) {
+            fail(Failure.BAD_HANDLE, "Write: Out of bound exception.");
             return -1;
         }
 
-        int status = openFileTables[index].getStatus();
-        int descriptorIndex = openFileTables[index].getDescriptorIndex();
-        Descriptor descriptor = getDescriptor(descriptorIndex);
-        int freeBlockIndex;
-        int i = 0;
+        Lock lock = lockFile(index);
+        try {
+            if (count < 0) {
+                fail(Failure.NEGATIVE_COUNT, "Write: Cannot write negative amount.");
+                return -1;
+            }
+            if (handles.get(index).getDescriptorIndex() == -1) {
+                fail(Failure.NOT_OPEN, "Write: Cannot open the file.");
+                return -1;
+            }
 
-        while (status != 4 && i < count) {
-            if (status < 0) {
-                if (status < -1 && openFileTables[index].isWritten()) {
-                    ioSystem.writeBlock(descriptor.getBlockIndex(-1 * status - 2), openFileTables[index].getBuffer());
-                    openFileTables[index].setWritten(false);
-                }
+            OpenFileTable file = handles.get(index);
+            int position = file.getCurrentPosition();
+            if (!file.seek(pos)) {
+                fail(Failure.POSITION_OUT_OF_RANGE, "position is out of range");
+                return -1;
+            }
+            int n = writeFile(file, memArea, count, true);
+            file.seek(position);
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-                ioSystem.readBlock(descriptor.getBlockIndex(-1 * status - 1), openFileTables[index].getBuffer());
-                openFileTables[index].setRead(true);
-            } else if (status > 0) {
-                if (status > 1 && openFileTables[index].isWritten()) {
-                    ioSystem.writeBlock(descriptor.getBlockIndex(status - 2), openFileTables[index].getBuffer());
-                    openFileTables[index].setWritten(false);
-                }
+    // the caller holds the file's lock. A positional call leaves the handle's sequential tracking alone,
+    // so pread and pwrite neither start read-ahead and write-behind nor break off a sequential reader's
+    private int readFile(OpenFileTable file, UnsignedByteArray memArea, int count, boolean positional) {
+        count = Math.min(count, Math.min(memArea.length(), file.getLength() - file.getCurrentPosition()));
+        int i = 0;
 
-                freeBlockIndex = bitmap.getFreeBlockIndex();
-                if (freeBlockIndex == NOT_ALLOCATED_INDEX) {
-                    return i;
-                }
+        while (i < count) {
+            int blockNumber = file.getCurrentBlock();
+            int offset = file.getOffsetInBlock();
+            int n = Math.min(blockSize - offset, count - i);
 
-                bitmap.setBlockIndexTaken(freeBlockIndex);
+            if (!positional && file.access(blockNumber)) {
+                readAhead(file, blockNumber);
+            }
 
-                descriptor.setBlockIndex(status - 1, freeBlockIndex);
-                descriptor.setFileLength(openFileTables[index].getCurrentPosition());
-                setDescriptor(descriptorIndex, descriptor);
-                openFileTables[index].setRead(false);
+            int blockIndex = getBlockIndex(file, blockNumber);
+            BlockCache.Frame frame = cache.pin(blockIndex, true);
+            try {
+                frame.getData().copyTo(offset, memArea, i, n);
+            } finally {
+                cache.unpin(frame, false);
             }
-            if (!openFileTables[index].isRead()) {
-                ioSystem.readBlock(descriptor.getBlockIndex(openFileTables[index].getCurrentBlock()), openFileTables[index].getBuffer());
-                openFileTables[index].setRead(true);
+
+            file.advance(n);
+            i += n;
+        }
+
+        return i;
+    }
+
+    // the caller holds the file's lock; bytes past the end of memArea repeat its last byte
+    private int writeFile(OpenFileTable file, UnsignedByteArray memArea, int count, boolean positional) {
+        int i = 0;
+
+        while (i < count) {
+            int blockNumber = file.getCurrentBlock();
+            int offset = file.getOffsetInBlock();
+            int n = Math.min(blockSize - offset, count - i);
+            boolean sequential = !positional && file.access(blockNumber);
+
+            int blockIndex = getBlockIndex(file, blockNumber);
+            if (blockIndex == -1) {
+                // a quarter of the file ahead as well, so files written in turn grow in long extents;
+                // one bitmap block's worth at most, so the append fits in a journal transaction
+                int ahead = getDescriptor(file.getDescriptorIndex()).getBlockCount() / GROWTH;
+                int blocks = Math.min((count - i + blockSize - 1) / blockSize + ahead, blockSize * Byte.SIZE);
+                beginUpdate();
+                try {
+                    int mapped = blockMap.append(file.getDescriptorIndex(), blocks);
+                    if (mapped == BlockMap.NO_EXTENT_SLOT) {
+                        fail(Failure.FILE_TOO_LARGE, "err: File is too large");
+                        break;
+                    }
+                    if (mapped == 0) {
+                        fail(Failure.NO_SPACE, "err: No space left on disk");
+                        break;
+                    }
+                    getDescriptor(file.getDescriptorIndex()).setFileLength(file.getCurrentPosition());
+                } finally {
+                    endUpdate();
+                }
+                blockIndex = getBlockIndex(file, blockNumber);
             }
 
-            if (memArea.length() <= i) {
-                status = openFileTables[index].writeByte(memArea.get(memArea.length() - 1));
+            if (n == blockSize && i + n <= memArea.length()) {
+                cache.writeBlock(blockIndex, memArea.slice(i, i + n));
             } else {
-                status = openFileTables[index].writeByte(memArea.get(i));
+                // a block past the end of the file still holds whatever its last owner left there
+                boolean inFile = blockNumber * blockSize < file.getLength();
+                BlockCache.Frame frame = cache.pin(blockIndex, inFile);
+                UnsignedByteArray block = frame.getData();
+                try {
+                    if (!inFile) {
+                        block.fill(0);
+                    }
+
+                    int copied = Math.max(0, Math.min(n, memArea.length() - i));
+                    if (copied > 0) {
+                        memArea.copyTo(i, block, offset, copied);
+                    }
+                    if (copied < n) {
+                        block.fill(offset + copied, offset + n,
+                                memArea.length() == 0 ? 0 : memArea.get(memArea.length() - 1));
+                    }
+                } finally {
+                    cache.unpin(frame, true);
+                }
             }
-            openFileTables[index].setWritten(true);
-            i++;
+
+            // a sequential writer will not come back to a block it has filled, so write it back in the background
+            if (sequential && offset + n == blockSize) {
+                cache.cleanAsync(blockIndex);
+            }
+
+            file.advance(n);
+            i += n;
         }
 
         return i;
     }
 
     public int lseek(int index, int pos) {
-        if (index > (MAX_OPEN_FILES - 1) || index < 0) {
-            System.out.println("lseek: file index is out of range");
-            return -1;
-        }
-        if (openFileTables[index].getDescriptorIndex() == -1) {
-            System.out.println("lseek: file is not opened");
-            return -1;
-        }
-        if (openFileTables[index].getLength() + 1 < pos || pos < 0 || pos == buffer.length() * 3) {
-            System.out.println("position is out of range");
+        lastFailure.set(null);
+        if (handles.get(index) == null) {
+            fail(Failure.BAD_HANDLE, "lseek: file index is out of range");
             return -1;
         }
 
-        int descriptorIndex = openFileTables[index].getDescriptorIndex();
-        Descriptor descriptor = getDescriptor(descriptorIndex);
+        Lock lock = lockFile(index);
+        try {
+            if (handles.get(index).getDescriptorIndex() == -1) {
+                fail(Failure.NOT_OPEN, "lseek: file is not opened");
+                return -1;
+            }
+            if (handles.get(index).getLength() + 1 < pos || pos < 0) {
+                fail(Failure.POSITION_OUT_OF_RANGE, "position is out of range");
+                return -1;
+            }
 
-        int prevBlock = openFileTables[index].getCurrentBlock();
-        int prevStatus = openFileTables[index].getStatus();
+            handles.get(index).seek(pos);
 
-        openFileTables[index].seek(pos);
+            return handles.get(index).getCurrentPosition();
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        int status = openFileTables[index].getStatus();
+    // disk block holding the file block, or -1 when the file is not that long yet
+    private int getBlockIndex(OpenFileTable file, int blockNumber) {
+        return getBlockIndex(file, blockNumber, file.getExtent());
+    }
 
-        if (status <= 0 && openFileTables[index].isWritten()) {
-            if (prevStatus == 0) {
-                ioSystem.writeBlock(descriptor.getBlockIndex(prevBlock), openFileTables[index].getBuffer());
-            } else if (prevStatus != 1 && prevStatus != -1) {
-                ioSystem.writeBlock(descriptor.getBlockIndex(prevBlock - 1), openFileTables[index].getBuffer());
-            }
+    private int getBlockIndex(OpenFileTable file, int blockNumber, Extent extent) {
+        if (!extent.contains(blockNumber) && !blockMap.find(file.getDescriptorIndex(), blockNumber, extent)) {
+            return -1;
+        }
+        return extent.getBlockIndex(blockNumber);
+    }
 
-            openFileTables[index].setWritten(false);
-            openFileTables[index].setRead(false);
+    // keeps prefetches running up to readAheadBlocks past a handle that reads in order,
+    // topping the window up once half of it has been consumed
+    private void readAhead(OpenFileTable file, int blockNumber) {
+        if (file.getReadAheadEnd() > blockNumber + readAheadBlocks / 2) {
+            return;
         }
 
-        return openFileTables[index].getCurrentPosition();
+        int end = Math.min(blockNumber + 1 + readAheadBlocks, (file.getLength() + blockSize - 1) / blockSize);
+        // blocks that are adjacent on disk as well are prefetched together
+        int runStart = -1;
+        int runLength = 0;
+        for (int b = Math.max(file.getReadAheadEnd(), blockNumber + 1); b < end; b++) {
+            int blockIndex = getBlockIndex(file, b, file.getReadAheadExtent());
+            if (runLength > 0 && blockIndex == runStart + runLength) {
+                runLength++;
+                continue;
+            }
+            if (runLength > 0) {
+                cache.prefetchAsync(runStart, runLength);
+            }
+            runStart = blockIndex;
+            runLength = blockIndex == -1 ? 0 : 1;
+        }
+        if (runLength > 0) {
+            cache.prefetchAsync(runStart, runLength);
+        }
+        file.setReadAheadEnd(Math.max(file.getReadAheadEnd(), end));
     }
 
     public List<Pair<String, Integer>> directory() {
-        var fileInfos = new ArrayList<Pair<String, Integer>>();
+        return directory(new UnsignedByteArray(""));
+    }
 
-        lseek(0, 0);
-        var memArea = new UnsignedByteArray(FILENAME_SIZE + DESCRIPTOR_SIZE);
-        while (openFileTables[0].getCurrentPosition() < openFileTables[0].getLength()) {
-            read(0, memArea, FILENAME_SIZE + DESCRIPTOR_SIZE);
+    // names and lengths of what the directory holds, directories with a '/' after the name;
+    // null when the path does not name a directory
+    public List<Pair<String, Integer>> directory(UnsignedByteArray path) {
+        directoryLock.readLock().lock();
+        try (Stream<Pair<String, Integer>> entries = entries(path)) {
+            return entries == null ? null : entries.collect(Collectors.toList());
+        } finally {
+            directoryLock.readLock().unlock();
+        }
+    }
 
-            if (!memArea.all(value -> value == 0)) {
-                String name = memArea.subArray(FILENAME_SIZE).toAsciiString();
-                int descriptorIndex = memArea.subArray(FILENAME_SIZE, FILENAME_SIZE + DESCRIPTOR_SIZE).toInt();
-                fileInfos.add(new Pair<>(name, getDescriptor(descriptorIndex).getFileLength()));
+    // the same as directory(path), but read a bucket at a time as the stream is consumed, and it can run in parallel.
+    // The directory lock is only taken for each page read, so changing the directory before the stream is done
+    // makes it throw ConcurrentModificationException
+    public Stream<Pair<String, Integer>> entries(UnsignedByteArray path) {
+        lastFailure.set(null);
+        Lock lock = directoryLock.readLock();
+        lock.lock();
+        try {
+            int directory = resolveDirectory(split(path));
+            if (directory == -1) {
+                fail(Failure.NOT_FOUND, "err: Directory not found");
+                return null;
             }
-        }
 
-        return fileInfos;
+            return StreamSupport.stream(directories.spliterator(directory, lock), false)
+                    .map(entry -> new Pair<>(entry.isDirectory() ? entry.getName() + "/" : entry.getName(),
+                            descriptorTable.getFileLength(entry.getDescriptorIndex())));
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private Descriptor getDescriptor(int descriptorIndex) {
-        ioSystem.readBlock(1 + descriptorIndex * DESCRIPTOR_SIZE / buffer.length(), buffer);
-
-        int descriptorIndexInBuffer = descriptorIndex * DESCRIPTOR_SIZE % buffer.length();
-        return new Descriptor(buffer.subArray(descriptorIndexInBuffer, descriptorIndexInBuffer + DESCRIPTOR_SIZE));
+    // why this thread's last call failed, null when it did not; each call starts by clearing it
+    public Failure lastFailure() {
+        Pair<Failure, String> failure = lastFailure.get();
+        return failure == null ? null : failure.getFirstValue();
     }
 
-    private void setDescriptor(int descriptorIndex, Descriptor descriptor) {
-        int blockIndex = 1 + descriptorIndex * DESCRIPTOR_SIZE / buffer.length();
-        ioSystem.readBlock(blockIndex, buffer);
+    // what the shell prints for lastFailure
+    public String lastFailureMessage() {
+        Pair<Failure, String> failure = lastFailure.get();
+        return failure == null ? null : failure.getSecondValue();
+    }
 
-        int descriptorIndexInBuffer = descriptorIndex * DESCRIPTOR_SIZE % buffer.length();
-        buffer.setSubArray(descriptorIndexInBuffer, descriptor.asUnsignedByteArray());
+    private void fail(Failure failure, String message) {
+        lastFailure.set(new Pair<>(failure, message));
+    }
 
-        ioSystem.writeBlock(blockIndex, buffer);
+    private Descriptor getDescriptor(int descriptorIndex) {
+        return descriptorTable.get(descriptorIndex);
     }
 }
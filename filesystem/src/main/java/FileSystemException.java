@@ -0,0 +1,28 @@
+import java.io.IOException;
+
+// a FileSystem operation that failed, for callers of AsyncFileSystem; getFailure tells callers why,
+// and getBytesTransferred how much of a write that stopped short was done
+public class FileSystemException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final Failure failure;
+    private final int bytesTransferred;
+
+    public FileSystemException(Failure failure, String message) {
+        this(failure, message, 0);
+    }
+
+    public FileSystemException(Failure failure, String message, int bytesTransferred) {
+        super(message);
+        this.failure = failure;
+        this.bytesTransferred = bytesTransferred;
+    }
+
+    public Failure getFailure() {
+        return failure;
+    }
+
+    public int getBytesTransferred() {
+        return bytesTransferred;
+    }
+}
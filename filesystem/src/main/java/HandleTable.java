@@ -0,0 +1,82 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Open file handles. Handle 0 is never handed out, so a stray 0 reaches no open file.
+// Released handles keep their OpenFileTable, so reopening reuses it; the table only grows when every handle is taken.
+// Free handles are kept in a bit set so the lowest one is handed out first.
+// Not synchronized: FileSystem guards allocate, release and find, get may be called without a lock.
+public class HandleTable {
+    private static final int INITIAL_CAPACITY = 4;
+    private static final int NO_HANDLE = -1;
+
+    private volatile OpenFileTable[] tables;
+    private BitSet freeHandles;
+    private int[] handles;
+    private int blockSize;
+    private int maxOpenFiles;
+
+    public HandleTable(int blockSize, int maxOpenFiles, int descriptorCount) {
+        this.blockSize = blockSize;
+        this.maxOpenFiles = maxOpenFiles;
+        this.tables = new OpenFileTable[0];
+        this.freeHandles = new BitSet();
+        grow(Math.min(INITIAL_CAPACITY, maxOpenFiles));
+        reset(descriptorCount);
+    }
+
+    // forgets every open file
+    public void reset(int descriptorCount) {
+        handles = new int[descriptorCount];
+        Arrays.fill(handles, NO_HANDLE);
+
+        for (int i = 1; i < tables.length; i++) {
+            tables[i].init();
+        }
+        freeHandles.set(1, tables.length);
+    }
+
+    // null when no such handle was ever handed out
+    public OpenFileTable get(int handle) {
+        OpenFileTable[] current = tables;
+        return handle > 0 && handle < current.length ? current[handle] : null;
+    }
+
+    public int size() {
+        return tables.length;
+    }
+
+    // handle that has the descriptor open, or -1
+    public int find(int descriptorIndex) {
+        return handles[descriptorIndex];
+    }
+
+    // returns -1 when maxOpenFiles handles are taken
+    public int allocate(int descriptorIndex) {
+        if (freeHandles.isEmpty()) {
+            if (tables.length >= maxOpenFiles) {
+                return NO_HANDLE;
+            }
+            grow(Math.min(maxOpenFiles, tables.length * 2));
+        }
+
+        int handle = freeHandles.nextSetBit(0);
+        freeHandles.clear(handle);
+        handles[descriptorIndex] = handle;
+        return handle;
+    }
+
+    public void release(int handle, int descriptorIndex) {
+        handles[descriptorIndex] = NO_HANDLE;
+        freeHandles.set(handle);
+    }
+
+    private void grow(int capacity) {
+        int oldCapacity = tables.length;
+        OpenFileTable[] grown = Arrays.copyOf(tables, capacity);
+        for (int i = Math.max(1, oldCapacity); i < capacity; i++) {
+            grown[i] = new OpenFileTable(blockSize);
+        }
+        freeHandles.set(Math.max(1, oldCapacity), capacity);
+        tables = grown;
+    }
+}
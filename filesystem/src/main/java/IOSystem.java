@@ -1,28 +1,124 @@
 import array.UnsignedByteArray;
 
-public class IOSystem {
-    private final UnsignedByteArray[] ldisk;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLongArray;
 
-    public IOSystem(int length, int blockSize) {
-        ldisk = new UnsignedByteArray[length];
-        for (int i = 0; i < length; i++) {
-            ldisk[i] = new UnsignedByteArray(blockSize);
+public abstract class IOSystem {
+    // one bit per block written since the last drain; null for systems that do not keep track
+    private AtomicLongArray dirtyBlocks;
+
+    public abstract void readBlock(int i, UnsignedByteArray p);
+
+    public abstract void writeBlock(int i, UnsignedByteArray p);
+
+    public abstract int getLength();
+
+    public abstract int getBlockSize();
+
+    // count adjacent blocks from first, held back to back in p;
+    // devices that can move them in one I/O override these
+    public void readBlocks(int first, int count, UnsignedByteArray p) {
+        int blockSize = getBlockSize();
+        for (int k = 0; k < count; k++) {
+            readBlock(first + k, p.slice(k * blockSize, (k + 1) * blockSize));
+        }
+    }
+
+    public void writeBlocks(int first, int count, UnsignedByteArray p) {
+        int blockSize = getBlockSize();
+        for (int k = 0; k < count; k++) {
+            writeBlock(first + k, p.slice(k * blockSize, (k + 1) * blockSize));
         }
     }
 
-    public void readBlock(int i, UnsignedByteArray p) {
-        for (int j = 0; j < p.length(); j++) {
-            p.set(j, ldisk[i].get(j));
+    // the same without waiting: the future completes once the run is in p or on the device, and p has to be
+    // left alone until then; devices that can have several runs in flight override these
+    public CompletableFuture<Void> readBlocksAsync(int first, int count, UnsignedByteArray p) {
+        try {
+            readBlocks(first, count, p);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
         }
     }
 
-    public void writeBlock(int i, UnsignedByteArray p) {
-        for (int j = 0; j < p.length(); j++) {
-            ldisk[i].set(j, p.get(j));
+    public CompletableFuture<Void> writeBlocksAsync(int first, int count, UnsignedByteArray p) {
+        try {
+            writeBlocks(first, count, p);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
         }
     }
 
-    public int getLength() {
-        return ldisk.length;
+    public void flush() {
+    }
+
+    // the block was freed; a layer holding writes back may drop its copy instead of writing it later
+    public void discard(int i) {
+    }
+
+    // the blocks written since the last call in ascending order, null when this system does not keep track
+    public int[] drainDirtyBlocks() {
+        if (dirtyBlocks == null) {
+            return null;
+        }
+
+        int count = 0;
+        long[] words = new long[dirtyBlocks.length()];
+        for (int w = 0; w < words.length; w++) {
+            words[w] = dirtyBlocks.getAndSet(w, 0);
+            count += Long.bitCount(words[w]);
+        }
+
+        int[] blocks = new int[count];
+        int k = 0;
+        for (int w = 0; w < words.length; w++) {
+            for (long word = words[w]; word != 0; word &= word - 1) {
+                blocks[k++] = w * Long.SIZE + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return blocks;
+    }
+
+    // waits for an asynchronous read or write, failing the way the blocking calls do
+    static void await(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    protected void trackDirtyBlocks(int length) {
+        dirtyBlocks = new AtomicLongArray((length + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    protected void markDirty(int first, int count) {
+        for (int k = 0; k < count; k++) {
+            markDirty(first + k);
+        }
+    }
+
+    // devices call this for every block they write
+    protected void markDirty(int i) {
+        if (dirtyBlocks == null) {
+            return;
+        }
+        long bit = 1L << (i % Long.SIZE);
+        // rewriting a block that is already dirty is the common case, so look before the atomic update
+        if ((dirtyBlocks.get(i / Long.SIZE) & bit) == 0) {
+            dirtyBlocks.getAndAccumulate(i / Long.SIZE, bit, (word, b) -> word | b);
+        }
     }
 }
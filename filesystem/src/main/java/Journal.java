@@ -0,0 +1,347 @@
+import array.UnsignedByteArray;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+// Write-ahead log for metadata blocks. Metadata writes collect in the running transaction instead of the cache,
+// commit writes the transaction to the journal region and only then hands the blocks to the cache,
+// which writes them home whenever it likes. Many operations share one commit.
+// Operations run between begin and end, and commit waits until none is running,
+// so a transaction never holds half of one. Each operation reserves room for every block it may change,
+// and none starts unless the transaction has room for it besides what the running ones reserved,
+// so a transaction always fits the region and is committed as a single record.
+// Only the last record is kept. A commit writes back just its log blocks, then the header, then the changed blocks
+// in their home places, and forces the device once, so the record the next commit overwrites is home already.
+// A process that dies keeps its writes in that order; only a power loss before the force can reorder them.
+// File data is left to the cache and to sync, so after a crash a file may point at blocks that never got theirs.
+// Region layout, big-endian ints: header (magic | sequence | block count | crc32) | block numbers | block images.
+// The header is written last, so a record whose header does not match its contents was never committed.
+public class Journal extends IOSystem {
+    static final int MAGIC = 0x46534a4c; // "FSJL"
+    // blocks one operation may change besides the bitmap and the directory: two descriptor blocks,
+    // the blocks of the descriptors-in-use bitmap they fall in and the extent blocks of one append, with some to spare
+    private static final int OPERATION_BLOCKS = 10;
+    // directory pages one operation may change: removing an entry changes its page, the pages before and after it
+    // in its chain, the first free page and page 0
+    private static final int OPERATION_PAGES = 5;
+
+    private BlockCache cache;
+    private int start;
+    private int capacity;
+    private int bitmapBlocks;
+    private int pageBlocks;
+    private boolean commitEachOperation;
+    private Map<Integer, UnsignedByteArray> transaction;
+    private int sequence;
+    private int active;
+    // blocks reserved by the running operations
+    private int reserved;
+    private boolean committing;
+    private ReentrantLock lock;
+    // signalled when an operation ends or a commit finishes
+    private Condition changed;
+    // operations nest, only the outermost one counts: depth and the blocks it reserved
+    private ThreadLocal<int[]> depth;
+
+    public Journal(BlockCache cache, Superblock superblock, boolean commitEachOperation) {
+        this.cache = cache;
+        this.commitEachOperation = commitEachOperation;
+        this.start = superblock.getJournalStart();
+        this.capacity = transactionBlocks(superblock.getJournalBlocks(), cache.getBlockSize());
+        this.bitmapBlocks = superblock.getBitmapBlocks();
+        this.pageBlocks = Directory.pageBlocks(cache.getBlockSize());
+        this.transaction = new LinkedHashMap<>();
+        this.lock = new ReentrantLock();
+        this.changed = lock.newCondition();
+        this.depth = ThreadLocal.withInitial(() -> new int[2]);
+    }
+
+    // the most blocks an operation other than a directory split may change
+    static int operationBlocks(int bitmapBlocks, int blockSize) {
+        return operationBlocks(bitmapBlocks, blockSize, OPERATION_PAGES);
+    }
+
+    static int operationBlocks(int bitmapBlocks, int blockSize, int directoryPages) {
+        return bitmapBlocks + OPERATION_BLOCKS + directoryPages * Directory.pageBlocks(blockSize);
+    }
+
+    // size of a region that holds a transaction of transactionBlocks blocks
+    static int regionBlocks(int transactionBlocks, int blockSize) {
+        return 1 + tagBlocks(transactionBlocks, blockSize) + transactionBlocks;
+    }
+
+    private static int tagBlocks(int count, int blockSize) {
+        return (count * Integer.BYTES + blockSize - 1) / blockSize;
+    }
+
+    private static int transactionBlocks(int journalBlocks, int blockSize) {
+        int count = (journalBlocks - 1) * blockSize / (blockSize + Integer.BYTES);
+        while (count > 0 && regionBlocks(count, blockSize) > journalBlocks) {
+            count--;
+        }
+        return count;
+    }
+
+    // images follow room for the block numbers of the largest transaction
+    private int imageStart() {
+        return start + 1 + tagBlocks(capacity, cache.getBlockSize());
+    }
+
+    // puts the blocks of the last committed record in place; harmless when they are there already
+    public void replay() {
+        int blockSize = cache.getBlockSize();
+        var header = new UnsignedByteArray(blockSize);
+        cache.readBlock(start, header);
+        if (header.getInt(0) != MAGIC) {
+            return;
+        }
+        sequence = header.getInt(4);
+        int count = header.getInt(8);
+        if (count <= 0 || count > capacity) {
+            return;
+        }
+
+        var crc = new CRC32();
+        var tags = new UnsignedByteArray(tagBlocks(count, blockSize) * blockSize);
+        for (int b = 0; b < tagBlocks(count, blockSize); b++) {
+            cache.readBlock(start + 1 + b, tags.slice(b * blockSize, (b + 1) * blockSize));
+        }
+        crc.update(tags.slice(0, count * Integer.BYTES).asByteBuffer());
+
+        var images = new UnsignedByteArray(count * blockSize);
+        for (int k = 0; k < count; k++) {
+            int blockIndex = tags.getInt(k * Integer.BYTES);
+            if (blockIndex < 0 || blockIndex >= cache.getLength()) {
+                return;
+            }
+            cache.readBlock(imageStart() + k, images.slice(k * blockSize, (k + 1) * blockSize));
+        }
+        crc.update(images.asByteBuffer());
+        if ((int) crc.getValue() != header.getInt(12)) {
+            return;
+        }
+
+        for (int k = 0; k < count; k++) {
+            cache.writeBlock(tags.getInt(k * Integer.BYTES), images.slice(k * blockSize, (k + 1) * blockSize));
+        }
+        cache.flush();
+    }
+
+    // starts an operation, committing first when the transaction has no room left for it
+    public void begin() {
+        begin(OPERATION_PAGES);
+    }
+
+    // starts an operation that may change up to directoryPages directory pages; see fits
+    public void begin(int directoryPages) {
+        int[] operation = depth.get();
+        if (operation[0]++ > 0) {
+            return;
+        }
+        operation[1] = reservation(directoryPages);
+        while (!enter(operation[1])) {
+            commit();
+        }
+    }
+
+    // whether an operation changing directoryPages directory pages fits a transaction at all
+    public boolean fits(int directoryPages) {
+        return reservation(directoryPages) <= capacity;
+    }
+
+    private int reservation(int directoryPages) {
+        return bitmapBlocks + OPERATION_BLOCKS + directoryPages * pageBlocks;
+    }
+
+    public void end() {
+        int[] operation = depth.get();
+        if (--operation[0] > 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            reserved -= operation[1];
+            if (--active == 0) {
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (commitEachOperation) {
+            commit();
+        }
+    }
+
+    // makes every finished operation durable
+    public void commit() {
+        lock.lock();
+        try {
+            while (committing) {
+                changed.awaitUninterruptibly();
+            }
+            committing = true;
+            while (active > 0) {
+                changed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // no operation can start now, so the transaction stays as it is while it is written
+        try {
+            // only an operation reserving more than the whole region, run alone, can get here
+            if (transaction.size() > capacity) {
+                throw new IllegalStateException(String.format(
+                        "transaction of %d blocks does not fit a journal of %d", transaction.size(), capacity));
+            }
+            if (!transaction.isEmpty()) {
+                writeRecord(new ArrayList<>(transaction.entrySet()));
+            }
+        } finally {
+            lock.lock();
+            try {
+                transaction.clear();
+                committing = false;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void readBlock(int i, UnsignedByteArray p) {
+        lock.lock();
+        try {
+            UnsignedByteArray image = transaction.get(i);
+            if (image != null) {
+                image.copyTo(0, p, 0, p.length());
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        cache.readBlock(i, p);
+    }
+
+    @Override
+    public void writeBlock(int i, UnsignedByteArray p) {
+        lock.lock();
+        try {
+            UnsignedByteArray image = transaction.get(i);
+            if (image == null) {
+                image = new UnsignedByteArray(cache.getBlockSize());
+                if (p.length() < image.length()) {
+                    cache.readBlock(i, image);
+                }
+                transaction.put(i, image);
+            }
+            p.copyTo(0, image, 0, p.length());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the block is free once this transaction commits, so its image is not written anywhere
+    @Override
+    public void discard(int i) {
+        lock.lock();
+        try {
+            transaction.remove(i);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getLength() {
+        return cache.getLength();
+    }
+
+    @Override
+    public int getBlockSize() {
+        return cache.getBlockSize();
+    }
+
+    // commits, then flushes the cache and the device
+    @Override
+    public void flush() {
+        commit();
+        cache.flush();
+    }
+
+    // joins the running transaction when it has room for blocks more besides what the running operations reserved;
+    // false when this thread has to commit first
+    private boolean enter(int blocks) {
+        lock.lock();
+        try {
+            while (true) {
+                if (!committing) {
+                    // an operation may always run on its own, even in a journal formatted for smaller ones
+                    if (transaction.size() + reserved + blocks <= capacity || active == 0 && transaction.isEmpty()) {
+                        active++;
+                        reserved += blocks;
+                        return true;
+                    }
+                    if (active == 0) {
+                        return false;
+                    }
+                }
+                changed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeRecord(List<Map.Entry<Integer, UnsignedByteArray>> entries) {
+        int blockSize = cache.getBlockSize();
+        int count = entries.size();
+
+        var crc = new CRC32();
+        var tags = new UnsignedByteArray(tagBlocks(count, blockSize) * blockSize);
+        for (int k = 0; k < count; k++) {
+            tags.setInt(k * Integer.BYTES, entries.get(k).getKey());
+        }
+        crc.update(tags.slice(0, count * Integer.BYTES).asByteBuffer());
+        for (int b = 0; b < tagBlocks(count, blockSize); b++) {
+            cache.writeBlock(start + 1 + b, tags.slice(b * blockSize, (b + 1) * blockSize));
+        }
+        for (int k = 0; k < count; k++) {
+            UnsignedByteArray image = entries.get(k).getValue();
+            crc.update(image.asByteBuffer());
+            cache.writeBlock(imageStart() + k, image);
+        }
+        var log = new ArrayList<Integer>();
+        for (int b = 0; b < tagBlocks(count, blockSize); b++) {
+            log.add(start + 1 + b);
+        }
+        for (int k = 0; k < count; k++) {
+            log.add(imageStart() + k);
+        }
+        cache.clean(log);
+
+        var header = new UnsignedByteArray(blockSize);
+        header.setInt(0, MAGIC);
+        header.setInt(4, ++sequence);
+        header.setInt(8, count);
+        header.setInt(12, (int) crc.getValue());
+        cache.writeBlock(start, header);
+        cache.clean(List.of(start));
+
+        var home = new ArrayList<Integer>();
+        for (Map.Entry<Integer, UnsignedByteArray> entry : entries) {
+            cache.writeBlock(entry.getKey(), entry.getValue());
+            home.add(entry.getKey());
+        }
+        cache.clean(home);
+        cache.force();
+    }
+}
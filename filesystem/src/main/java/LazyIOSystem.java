@@ -0,0 +1,206 @@
+import array.UnsignedByteArray;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
+
+// A device that starts out as a copy of a binary disk image without copying it: only the header is read up front,
+// and each block is read from the image, checked and written to the device the first time it is used.
+// A block that is overwritten before it is read is never read from the image at all.
+// The image has to stay as it is until every block is in, see loadAll.
+public class LazyIOSystem extends IOSystem implements Closeable {
+    private final IOSystem device;
+    private final Path path;
+    private final FileChannel image;
+    private final int headerSize;
+    // one bit per block already on the device
+    private final AtomicLongArray loaded;
+    private int remaining;
+
+    public LazyIOSystem(IOSystem device, Path path) throws IOException {
+        this.device = device;
+        this.path = path;
+        this.image = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(DiskImage.HEADER_SIZE);
+            image.read(header, 0);
+            headerSize = DiskImage.checkHeader(header, device.getLength(), device.getBlockSize());
+        } catch (IOException e) {
+            image.close();
+            throw e;
+        }
+
+        int length = device.getLength();
+        loaded = new AtomicLongArray((length + Long.SIZE - 1) / Long.SIZE);
+        remaining = length;
+        trackDirtyBlocks(length);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // block i as the image holds it, checked but not put on the device
+    public void readImageBlock(int i, UnsignedByteArray p) throws IOException {
+        int blockSize = getBlockSize();
+        ByteBuffer checksum = ByteBuffer.allocate(Integer.BYTES);
+        readFully(p.asByteBuffer(), DiskImage.dataOffset(headerSize, getLength()) + (long) i * blockSize);
+        readFully(checksum, headerSize + (long) i * Integer.BYTES);
+
+        var crc = new CRC32();
+        crc.update(p.asByteBuffer());
+        if ((int) crc.getValue() != checksum.getInt(0)) {
+            throw new IOException(String.format("Block %d of %s is corrupted", i, path));
+        }
+    }
+
+    @Override
+    public void readBlock(int i, UnsignedByteArray p) {
+        if (!isLoaded(i)) {
+            load(i, null);
+        }
+        device.readBlock(i, p);
+    }
+
+    @Override
+    public void writeBlock(int i, UnsignedByteArray p) {
+        if (isLoaded(i)) {
+            device.writeBlock(i, p);
+        } else {
+            load(i, p);
+        }
+        markDirty(i);
+    }
+
+    // runs that are all on the device already go down in one call
+    @Override
+    public void readBlocks(int first, int count, UnsignedByteArray p) {
+        if (!isLoaded(first, count)) {
+            super.readBlocks(first, count, p);
+            return;
+        }
+        device.readBlocks(first, count, p);
+    }
+
+    @Override
+    public void writeBlocks(int first, int count, UnsignedByteArray p) {
+        if (!isLoaded(first, count)) {
+            super.writeBlocks(first, count, p);
+            return;
+        }
+        device.writeBlocks(first, count, p);
+        markDirty(first, count);
+    }
+
+    @Override
+    public CompletableFuture<Void> readBlocksAsync(int first, int count, UnsignedByteArray p) {
+        if (!isLoaded(first, count)) {
+            return super.readBlocksAsync(first, count, p);
+        }
+        return device.readBlocksAsync(first, count, p);
+    }
+
+    @Override
+    public CompletableFuture<Void> writeBlocksAsync(int first, int count, UnsignedByteArray p) {
+        if (!isLoaded(first, count)) {
+            return super.writeBlocksAsync(first, count, p);
+        }
+        return device.writeBlocksAsync(first, count, p).thenRun(() -> markDirty(first, count));
+    }
+
+    @Override
+    public int getLength() {
+        return device.getLength();
+    }
+
+    @Override
+    public int getBlockSize() {
+        return device.getBlockSize();
+    }
+
+    @Override
+    public void flush() {
+        device.flush();
+    }
+
+    // reads every block that is still in the image only, after which the image is no longer needed
+    public void loadAll() {
+        for (int i = 0; i < getLength() && !isComplete(); i++) {
+            if (!isLoaded(i)) {
+                load(i, null);
+            }
+        }
+    }
+
+    public synchronized boolean isComplete() {
+        return remaining == 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        image.close();
+    }
+
+    private boolean isLoaded(int first, int count) {
+        for (int k = 0; k < count; k++) {
+            if (!isLoaded(first + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isLoaded(int i) {
+        return (loaded.get(i / Long.SIZE) & (1L << (i % Long.SIZE))) != 0;
+    }
+
+    // puts block i on the device with p written over it; a whole block in p means the image's copy is not needed
+    private synchronized void load(int i, UnsignedByteArray p) {
+        if (isLoaded(i)) {
+            if (p != null) {
+                device.writeBlock(i, p);
+            }
+            return;
+        }
+
+        if (p == null || p.length() < getBlockSize()) {
+            var block = new UnsignedByteArray(getBlockSize());
+            try {
+                readImageBlock(i, block);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            device.writeBlock(i, block);
+        }
+        if (p != null) {
+            device.writeBlock(i, p);
+        }
+
+        loaded.getAndAccumulate(i / Long.SIZE, 1L << (i % Long.SIZE), (word, bit) -> word | bit);
+        if (--remaining == 0) {
+            try {
+                image.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = image.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of disk image");
+            }
+            position += read;
+        }
+    }
+}
@@ -1,6 +1,37 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
 public class Main {
-    public static void main(String[] args) {
-        var shell = new Shell(new FileSystem(64,64));
-        shell.run();
+    private static final int DISK_LENGTH = 2048;
+    private static final int BLOCK_SIZE = 512;
+
+    // java Main [image [mapped|channel|async]] keeps the disk in image, through the given device (mapped by default)
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            IOSystem ioSystem = open(Path.of(args[0]), args.length > 1 ? args[1] : "mapped");
+            try (var closeable = (Closeable) ioSystem) {
+                var fileSystem = new FileSystem(ioSystem);
+                new Shell(fileSystem).run();
+                fileSystem.sync();
+            }
+        } else {
+            var shell = new Shell(new FileSystem(DISK_LENGTH, BLOCK_SIZE));
+            shell.run();
+        }
+    }
+
+    private static IOSystem open(Path path, String device) throws IOException {
+        switch (device) {
+            case "mapped":
+                return new MappedIOSystem(path, DISK_LENGTH, BLOCK_SIZE);
+            case "channel":
+                return new FileChannelIOSystem(path, DISK_LENGTH, BLOCK_SIZE);
+            case "async":
+                return new AsyncFileChannelIOSystem(path, DISK_LENGTH, BLOCK_SIZE);
+            default:
+                throw new IllegalArgumentException(String.format(
+                        "Unknown device %s, expected mapped, channel or async", device));
+        }
     }
 }
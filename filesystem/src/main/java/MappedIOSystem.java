@@ -0,0 +1,112 @@
+import array.UnsignedByteArray;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class MappedIOSystem extends IOSystem implements Closeable {
+    private static final long MAX_REGION_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] regions;
+    private final int blocksPerRegion;
+    private final int length;
+    private final int blockSize;
+
+    public MappedIOSystem(Path path, int length, int blockSize) throws IOException {
+        this.length = length;
+        this.blockSize = blockSize;
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long size = (long) length * blockSize;
+        long existingSize = channel.size();
+        if (existingSize != 0 && existingSize != size) {
+            channel.close();
+            throw new IOException(String.format(
+                    "Disk image %s has %d bytes, expected %d (%d blocks of %d bytes)",
+                    path, existingSize, size, length, blockSize));
+        }
+
+        blocksPerRegion = (int) Math.max(1, Math.min(length, MAX_REGION_SIZE / blockSize));
+        regions = new MappedByteBuffer[(length + blocksPerRegion - 1) / blocksPerRegion];
+        for (int i = 0; i < regions.length; i++) {
+            long position = (long) i * blocksPerRegion * blockSize;
+            regions[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(size - position,
+                    (long) blocksPerRegion * blockSize));
+        }
+        trackDirtyBlocks(length);
+    }
+
+    @Override
+    public void readBlock(int i, UnsignedByteArray p) {
+        p.asByteBuffer().put(view(i, p.length()));
+    }
+
+    @Override
+    public void writeBlock(int i, UnsignedByteArray p) {
+        view(i, p.length()).put(p.asByteBuffer());
+        markDirty(i);
+    }
+
+    // a run within one region is a single bulk copy
+    @Override
+    public void readBlocks(int first, int count, UnsignedByteArray p) {
+        if (!inOneRegion(first, count)) {
+            super.readBlocks(first, count, p);
+            return;
+        }
+        p.asByteBuffer().put(view(first, count * blockSize));
+    }
+
+    @Override
+    public void writeBlocks(int first, int count, UnsignedByteArray p) {
+        if (!inOneRegion(first, count)) {
+            super.writeBlocks(first, count, p);
+            return;
+        }
+        view(first, count * blockSize).put(p.asByteBuffer().limit(count * blockSize));
+        markDirty(first, count);
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public void flush() {
+        for (MappedByteBuffer region : regions) {
+            region.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private boolean inOneRegion(int first, int count) {
+        return first / blocksPerRegion == (first + count - 1) / blocksPerRegion;
+    }
+
+    // bytes of the region from block i on; a duplicate has its own position, so threads never share one
+    private ByteBuffer view(int i, int bytes) {
+        int offset = offsetInRegion(i);
+        return regions[i / blocksPerRegion].duplicate().position(offset).limit(offset + bytes);
+    }
+
+    private int offsetInRegion(int i) {
+        return (i % blocksPerRegion) * blockSize;
+    }
+}
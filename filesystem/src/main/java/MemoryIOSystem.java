@@ -0,0 +1,72 @@
+import array.UnsignedByteArray;
+
+public class MemoryIOSystem extends IOSystem {
+    private static final int MAX_REGION_SIZE = 1 << 30;
+
+    // a single Java array tops out at 2 GiB, so larger disks are split into regions of whole blocks
+    private final UnsignedByteArray[] regions;
+    private final int blocksPerRegion;
+    private final int length;
+    private final int blockSize;
+
+    public MemoryIOSystem(int length, int blockSize) {
+        this.length = length;
+        this.blockSize = blockSize;
+
+        blocksPerRegion = Math.max(1, Math.min(length, MAX_REGION_SIZE / blockSize));
+        regions = new UnsignedByteArray[(length + blocksPerRegion - 1) / blocksPerRegion];
+        for (int i = 0; i < regions.length; i++) {
+            regions[i] = new UnsignedByteArray(Math.min(length - i * blocksPerRegion, blocksPerRegion) * blockSize);
+        }
+        trackDirtyBlocks(length);
+    }
+
+    @Override
+    public void readBlock(int i, UnsignedByteArray p) {
+        regions[i / blocksPerRegion].copyTo(offsetInRegion(i), p, 0, p.length());
+    }
+
+    @Override
+    public void writeBlock(int i, UnsignedByteArray p) {
+        p.copyTo(0, regions[i / blocksPerRegion], offsetInRegion(i), p.length());
+        markDirty(i);
+    }
+
+    // a run within one region is a single copy
+    @Override
+    public void readBlocks(int first, int count, UnsignedByteArray p) {
+        if (!inOneRegion(first, count)) {
+            super.readBlocks(first, count, p);
+            return;
+        }
+        regions[first / blocksPerRegion].copyTo(offsetInRegion(first), p, 0, count * blockSize);
+    }
+
+    @Override
+    public void writeBlocks(int first, int count, UnsignedByteArray p) {
+        if (!inOneRegion(first, count)) {
+            super.writeBlocks(first, count, p);
+            return;
+        }
+        p.copyTo(0, regions[first / blocksPerRegion], offsetInRegion(first), count * blockSize);
+        markDirty(first, count);
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    private boolean inOneRegion(int first, int count) {
+        return first / blocksPerRegion == (first + count - 1) / blocksPerRegion;
+    }
+
+    private int offsetInRegion(int i) {
+        return (i % blocksPerRegion) * blockSize;
+    }
+}
@@ -1,22 +1,25 @@
-import array.UnsignedByteArray;
-
+// position and length of an open file; its blocks live in the BlockCache
 public class OpenFileTable {
-    private static final int DEFAULT_VALUE = 0;
-
     private int currentPosition;
-    private UnsignedByteArray buffer;
-    private int descriptorIndex;
+    private int blockSize;
+    // read without the file lock to find which lock guards this handle
+    private volatile int descriptorIndex;
     private int length;
-    private boolean isRead;
-    private boolean isWritten;
-
-    public OpenFileTable(int bufferSize) {
-        this.buffer = new UnsignedByteArray(bufferSize);
+    private Extent extent;
+    // the file block accessed last and how many blocks in a row led up to it in order
+    private int lastBlock;
+    private int sequentialBlocks;
+    // read-ahead was requested for every block before this one
+    private int readAheadEnd;
+    private Extent readAheadExtent;
+
+    public OpenFileTable(int blockSize) {
+        this.blockSize = blockSize;
         this.currentPosition = -1;
         this.descriptorIndex = -1;
         this.length = -1;
-        this.isRead = false;
-        this.isWritten = false;
+        this.extent = new Extent();
+        this.readAheadExtent = new Extent();
     }
 
     public void init() {
@@ -25,40 +28,38 @@ public class OpenFileTable {
     }
 
     public void init(int descriptorIndex, int length) {
-        initBuffer();
         this.currentPosition = 0;
         this.descriptorIndex = descriptorIndex;
         this.length = length;
-        this.isRead = false;
-        this.isWritten = false;
-    }
-
-    public void initBuffer() {
-        for (int i = 0; i < buffer.length(); i++) {
-            buffer.set(i, DEFAULT_VALUE);
+        this.extent.clear();
+        this.readAheadExtent.clear();
+        this.lastBlock = -1;
+        this.sequentialBlocks = 0;
+        this.readAheadEnd = 0;
+    }
+
+    // records an access to blockNumber, true while the handle moves through the file in order
+    public boolean access(int blockNumber) {
+        if (blockNumber == lastBlock + 1) {
+            sequentialBlocks++;
+        } else if (blockNumber != lastBlock) {
+            sequentialBlocks = 0;
+            readAheadEnd = blockNumber + 1;
         }
+        lastBlock = blockNumber;
+        return sequentialBlocks > 0;
     }
 
-    public int readByte(UnsignedByteArray bytes, int index) {
-        bytes.set(index, buffer.get(currentPosition % buffer.length()));
-        currentPosition++;
-
-        return getStatus();
-    }
-
-    public int writeByte(int b) {
-        buffer.set(currentPosition % buffer.length(), b);
-        currentPosition++;
-
-        if (currentPosition == length + 1) {
-            length++;
+    // moves the position forward after count bytes were transferred, growing the file when writing past its end
+    public void advance(int count) {
+        currentPosition += count;
+        if (currentPosition > length) {
+            length = currentPosition;
         }
-
-        return getStatus();
     }
 
     public boolean seek(int index) {
-        if (index <= length && length >= 0) {
+        if (index >= 0 && index <= length) {
             currentPosition = index;
             return true;
         }
@@ -73,52 +74,33 @@ public class OpenFileTable {
         return descriptorIndex;
     }
 
-    public UnsignedByteArray getBuffer() {
-        return buffer;
-    }
-
     public int getLength() {
         return length;
     }
 
     public int getCurrentBlock() {
-        return currentPosition / buffer.length();
+        return currentPosition / blockSize;
     }
 
-    public boolean isRead() {
-        return isRead;
+    public int getOffsetInBlock() {
+        return currentPosition % blockSize;
     }
 
-    public void setRead(boolean read) {
-        isRead = read;
+    // the last extent used by this file, so sequential access maps blocks without touching the descriptor
+    public Extent getExtent() {
+        return extent;
     }
 
-    public boolean isWritten() {
-        return isWritten;
+    // kept apart from getExtent, so mapping blocks ahead does not move it away from the current block
+    public Extent getReadAheadExtent() {
+        return readAheadExtent;
     }
 
-    public void setWritten(boolean written) {
-        isWritten = written;
+    public int getReadAheadEnd() {
+        return readAheadEnd;
     }
 
-    public int getStatus() {
-
-        if (currentPosition == buffer.length() * 3) // max length of file (3 block)
-            return 4;
-        else if (currentPosition == buffer.length() * 2 && currentPosition == length)
-            return 3;
-        else if (currentPosition == buffer.length() && currentPosition == length)
-            return 2;
-        else if (currentPosition == 0 && currentPosition == length)
-            return 1;
-        else if (currentPosition == buffer.length() * 2 && currentPosition < length)
-            return -3;
-        else if (currentPosition == buffer.length() && currentPosition < length)
-            return -2;
-        else if (currentPosition == 0 && currentPosition < length)
-            return -1;
-        else
-            return 0;
+    public void setReadAheadEnd(int readAheadEnd) {
+        this.readAheadEnd = readAheadEnd;
     }
-
 }
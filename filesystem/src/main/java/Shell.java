@@ -36,6 +36,9 @@ public class Shell {
             case "cr":
                 create(args);
                 break;
+            case "md":
+                mkdir(args);
+                break;
             case "de":
                 destroy(args);
                 break;
@@ -63,6 +66,15 @@ public class Shell {
             case "sv":
                 save(args);
                 break;
+            case "ck":
+                checkpoint(args);
+                break;
+            case "xp":
+                export(args);
+                break;
+            case "sy":
+                sync(args);
+                break;
             default:
                 System.out.println("unknown command");
                 break;
@@ -79,7 +91,21 @@ public class Shell {
         if (fileSystem.create(filename)) {
             System.out.printf("file %s created\n", filename.toAsciiString());
         } else {
+            failed();
+        }
+    }
+
+    public void mkdir(List<String> args) {
+        if (args.size() != 1) {
             System.out.println("error");
+            return;
+        }
+
+        var path = new UnsignedByteArray(args.get(0));
+        if (fileSystem.mkdir(path)) {
+            System.out.printf("directory %s created\n", path.toAsciiString());
+        } else {
+            failed();
         }
     }
 
@@ -94,7 +120,7 @@ public class Shell {
         if (index != -1) {
             System.out.printf("file %s opened, index=%d\n", filename.toAsciiString(), index);
         } else {
-            System.out.println("error");
+            failed();
         }
 
     }
@@ -111,7 +137,7 @@ public class Shell {
             if (index != -1) {
                 System.out.printf("file %d closed\n", index);
             } else {
-                System.out.println("error");
+                failed();
             }
         } catch (NumberFormatException e) {
             System.out.println("error");
@@ -131,9 +157,13 @@ public class Shell {
             count = fileSystem.write(index, chars, count);
             if (count != -1) {
                 System.out.printf("%d bytes written\n", count);
-
+                // a short write says what stopped it
+                String message = fileSystem.lastFailureMessage();
+                if (message != null) {
+                    System.out.println(message);
+                }
             } else {
-                System.out.println("error");
+                failed();
             }
         } catch (NumberFormatException e) {
             System.out.println("error");
@@ -154,7 +184,7 @@ public class Shell {
             if (count != -1) {
                 System.out.printf("%d bytes read: %s\n", count, chars.toAsciiString());
             } else {
-                System.out.println("error");
+                failed();
             }
         } catch (NumberFormatException e) {
             System.out.println("error");
@@ -174,7 +204,7 @@ public class Shell {
             if (pos != -1) {
                 System.out.printf("current position is %d\n", pos);
             } else {
-                System.out.println("error");
+                failed();
             }
         } catch (NumberFormatException e) {
             System.out.println("error");
@@ -182,14 +212,17 @@ public class Shell {
     }
 
     public void directory(List<String> args) {
-        if (args.size() != 0) {
+        if (args.size() > 1) {
             System.out.println("error");
             return;
         }
 
-        List<Pair<String, Integer>> fileInfos = fileSystem.directory();
+        List<Pair<String, Integer>> fileInfos = args.isEmpty()
+                ? fileSystem.directory() : fileSystem.directory(new UnsignedByteArray(args.get(0)));
 
-        if (fileInfos.size() > 0) {
+        if (fileInfos == null) {
+            failed();
+        } else if (fileInfos.size() > 0) {
             for (var fileInfo: fileInfos) {
                 System.out.printf("%-5s %-5d\n", fileInfo.getFirstValue(), fileInfo.getSecondValue());
             }
@@ -209,7 +242,7 @@ public class Shell {
         if (fileSystem.destroy(filename)) {
             System.out.printf("file %s destroyed\n", filename.toAsciiString());
         } else {
-            System.out.println("error");
+            failed();
         }
     }
 
@@ -224,7 +257,7 @@ public class Shell {
             System.out.println("disk restored");
         }
         else {
-            System.out.println("error");
+            failed();
         }
     }
 
@@ -239,7 +272,56 @@ public class Shell {
             System.out.println("disk saved");
         }
         else {
+            failed();
+        }
+    }
+
+    public void checkpoint(List<String> args) {
+        if (args.size() != 1) {
             System.out.println("error");
+            return;
+        }
+
+        String filename = args.get(0);
+        if (fileSystem.checkpoint(filename)) {
+            System.out.println("disk checkpointed");
+        }
+        else {
+            failed();
+        }
+    }
+
+    public void sync(List<String> args) {
+        if (args.size() != 0) {
+            System.out.println("error");
+            return;
+        }
+
+        fileSystem.sync();
+        System.out.println("disk synced");
+    }
+
+    public void export(List<String> args) {
+        if (args.size() != 1) {
+            System.out.println("error");
+            return;
+        }
+
+        String filename = args.get(0);
+        if (fileSystem.export(filename)) {
+            System.out.println("disk exported");
+        }
+        else {
+            failed();
+        }
+    }
+
+    // the file system's reason for the call that just failed, then the error line
+    private void failed() {
+        String message = fileSystem.lastFailureMessage();
+        if (message != null) {
+            System.out.println(message);
         }
+        System.out.println("error");
     }
 }
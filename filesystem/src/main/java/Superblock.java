@@ -0,0 +1,150 @@
+import array.UnsignedByteArray;
+
+// block 0, big-endian ints:
+// magic | block size | block count | descriptor count | bitmap start | bitmap blocks
+// | descriptor table start | descriptor table blocks | journal start | journal blocks
+public class Superblock {
+    static final int MAGIC = 0x46535342; // "FSSB"
+    static final int BLOCK_INDEX = 0;
+    static final int SIZE = 10 * Integer.BYTES;
+
+    // one descriptor for every few blocks, but never fewer than a small directory needs
+    private static final int BLOCKS_PER_DESCRIPTOR = 4;
+    private static final int MIN_DESCRIPTORS = 16;
+    // the journal grows with the disk, but always holds the largest single operation
+    private static final int BLOCKS_PER_JOURNAL_BLOCK = 64;
+    private static final int MAX_JOURNAL_BLOCKS = 1024;
+
+    private IOSystem ioSystem;
+    private UnsignedByteArray buffer;
+    private int descriptorCount;
+    private int bitmapStart;
+    private int bitmapBlocks;
+    private int descriptorTableStart;
+    private int descriptorTableBlocks;
+    private int journalStart;
+    private int journalBlocks;
+
+    public Superblock(IOSystem ioSystem) {
+        this.ioSystem = ioSystem;
+        this.buffer = new UnsignedByteArray(ioSystem.getBlockSize());
+    }
+
+    // false when block 0 does not describe a disk of this geometry
+    public boolean read() {
+        if (buffer.length() < SIZE) {
+            return false;
+        }
+        ioSystem.readBlock(BLOCK_INDEX, buffer);
+        if (!describes(buffer, ioSystem.getLength(), ioSystem.getBlockSize())) {
+            return false;
+        }
+
+        descriptorCount = buffer.getInt(12);
+        bitmapStart = buffer.getInt(16);
+        bitmapBlocks = buffer.getInt(20);
+        descriptorTableStart = buffer.getInt(24);
+        descriptorTableBlocks = buffer.getInt(28);
+        journalStart = buffer.getInt(32);
+        journalBlocks = buffer.getInt(36);
+        return true;
+    }
+
+    // whether block, read from block 0 of some disk, is the superblock of a disk of this geometry
+    public static boolean describes(UnsignedByteArray block, int length, int blockSize) {
+        return block.length() >= SIZE && block.getInt(0) == MAGIC && block.getInt(4) == blockSize
+                && block.getInt(8) == length && block.getInt(36) > 0;
+    }
+
+    // true when block 0 is all zeros, as on a disk that was never formatted
+    public boolean isBlank() {
+        ioSystem.readBlock(BLOCK_INDEX, buffer);
+        return buffer.all(b -> b == 0);
+    }
+
+    public void format() {
+        format(Math.max(MIN_DESCRIPTORS, ioSystem.getLength() / BLOCKS_PER_DESCRIPTOR));
+    }
+
+    // lays out the bitmap, the descriptor table and the journal right after block 0 and clears them
+    public void format(int descriptorCount) {
+        int length = ioSystem.getLength();
+        int blockSize = ioSystem.getBlockSize();
+        if (blockSize < SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    "blocks of %d bytes cannot hold the superblock", blockSize));
+        }
+
+        this.descriptorCount = descriptorCount;
+        bitmapStart = BLOCK_INDEX + 1;
+        bitmapBlocks = (int) (((long) length + blockSize * 8L - 1) / (blockSize * 8L));
+        descriptorTableStart = bitmapStart + bitmapBlocks;
+        descriptorTableBlocks = DescriptorTable.regionBlocks(descriptorCount, blockSize);
+        journalStart = descriptorTableStart + descriptorTableBlocks;
+        int transactionBlocks = Math.max(Journal.operationBlocks(bitmapBlocks, blockSize),
+                Math.min(MAX_JOURNAL_BLOCKS, length / BLOCKS_PER_JOURNAL_BLOCK));
+        journalBlocks = Journal.regionBlocks(transactionBlocks, blockSize);
+        if (getFirstDataBlock() >= length) {
+            throw new IllegalArgumentException(String.format(
+                    "%d blocks of %d bytes cannot hold %d descriptors and a journal",
+                    length, blockSize, descriptorCount));
+        }
+
+        buffer.fill(0);
+        for (int i = bitmapStart; i < getFirstDataBlock(); i++) {
+            ioSystem.writeBlock(i, buffer);
+        }
+
+        buffer.setInt(0, MAGIC);
+        buffer.setInt(4, blockSize);
+        buffer.setInt(8, length);
+        buffer.setInt(12, descriptorCount);
+        buffer.setInt(16, bitmapStart);
+        buffer.setInt(20, bitmapBlocks);
+        buffer.setInt(24, descriptorTableStart);
+        buffer.setInt(28, descriptorTableBlocks);
+        buffer.setInt(32, journalStart);
+        buffer.setInt(36, journalBlocks);
+        ioSystem.writeBlock(BLOCK_INDEX, buffer);
+    }
+
+    public int getBlockSize() {
+        return ioSystem.getBlockSize();
+    }
+
+    public int getBlockCount() {
+        return ioSystem.getLength();
+    }
+
+    public int getDescriptorCount() {
+        return descriptorCount;
+    }
+
+    public int getBitmapStart() {
+        return bitmapStart;
+    }
+
+    public int getBitmapBlocks() {
+        return bitmapBlocks;
+    }
+
+    public int getDescriptorTableStart() {
+        return descriptorTableStart;
+    }
+
+    public int getDescriptorTableBlocks() {
+        return descriptorTableBlocks;
+    }
+
+    public int getJournalStart() {
+        return journalStart;
+    }
+
+    public int getJournalBlocks() {
+        return journalBlocks;
+    }
+
+    public int getFirstDataBlock() {
+        return journalStart + journalBlocks;
+    }
+}
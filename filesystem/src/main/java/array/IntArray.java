@@ -8,28 +8,15 @@ public class IntArray {
     }
 
     public void set(int index, int value) {
-        int startIndex = index * 4, endIndex = startIndex + 4;
-        if (endIndex > this.underlyingArray.length()) {
-            throw new IndexOutOfBoundsException();
-        }
-
-        UnsignedByteArray arrayValue = UnsignedByteArray.fromInt(value);
-        for (int i = startIndex, j = 0; i < endIndex; i++, j++) {
-            underlyingArray.set(i, arrayValue.get(j));
-        }
+        underlyingArray.setInt(index * Integer.BYTES, value);
     }
 
     public int get(int index) {
-        int startIndex = index * 4, endIndex = startIndex + 4;
-        if (endIndex > this.underlyingArray.length()) {
-            throw new IndexOutOfBoundsException();
-        }
-
-        return this.underlyingArray.subArray(startIndex, endIndex).toInt();
+        return underlyingArray.getInt(index * Integer.BYTES);
     }
 
     public int length() {
-        return this.underlyingArray.length() / 4;
+        return this.underlyingArray.length() / Integer.BYTES;
     }
 
     @Override
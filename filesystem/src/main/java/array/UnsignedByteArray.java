@@ -1,13 +1,24 @@
 package array;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.function.Predicate;
 
 public class UnsignedByteArray {
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
     private final byte[] array;
+    private final int offset;
+    private final int length;
 
     public UnsignedByteArray(int length) {
-        this.array = new byte[length];
+        this(new byte[length], 0, length);
     }
 
     public UnsignedByteArray(String asciiString) {
@@ -17,37 +28,147 @@ public class UnsignedByteArray {
         }
     }
 
+    private UnsignedByteArray(byte[] array, int offset, int length) {
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public static UnsignedByteArray wrap(byte[] array) {
+        return new UnsignedByteArray(array, 0, array.length);
+    }
+
+    public static UnsignedByteArray wrap(byte[] array, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > array.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new UnsignedByteArray(array, offset, length);
+    }
+
     public void set(int index, int value) {
-        this.array[index] = (byte) (value & 0xff);
+        checkRange(index, 1);
+        this.array[offset + index] = (byte) (value & 0xff);
     }
 
     public int get(int index) {
-        return this.array[index] & 0xff;
+        checkRange(index, 1);
+        return this.array[offset + index] & 0xff;
     }
 
     public int length() {
-        return this.array.length;
+        return this.length;
+    }
+
+    public int getUnsignedShort(int index) {
+        checkRange(index, Short.BYTES);
+        return (short) SHORT.get(array, offset + index) & 0xffff;
+    }
+
+    public void setShort(int index, int value) {
+        checkRange(index, Short.BYTES);
+        SHORT.set(array, offset + index, (short) value);
+    }
+
+    public int getInt(int index) {
+        checkRange(index, Integer.BYTES);
+        return (int) INT.get(array, offset + index);
+    }
+
+    public void setInt(int index, int value) {
+        checkRange(index, Integer.BYTES);
+        INT.set(array, offset + index, value);
+    }
+
+    public long getLong(int index) {
+        checkRange(index, Long.BYTES);
+        return (long) LONG.get(array, offset + index);
+    }
+
+    public void setLong(int index, long value) {
+        checkRange(index, Long.BYTES);
+        LONG.set(array, offset + index, value);
+    }
+
+    // atomic variants need index to be a multiple of eight from the start of the backing array
+    public long getLongVolatile(int index) {
+        checkRange(index, Long.BYTES);
+        return (long) LONG.getVolatile(array, offset + index);
+    }
+
+    public boolean compareAndSetLong(int index, long expected, long value) {
+        checkRange(index, Long.BYTES);
+        return LONG.compareAndSet(array, offset + index, expected, value);
+    }
+
+    public long getAndBitwiseOrLong(int index, long mask) {
+        checkRange(index, Long.BYTES);
+        return (long) LONG.getAndBitwiseOr(array, offset + index, mask);
+    }
+
+    public long getAndBitwiseAndLong(int index, long mask) {
+        checkRange(index, Long.BYTES);
+        return (long) LONG.getAndBitwiseAnd(array, offset + index, mask);
+    }
+
+    // index to index + size has to lie inside this slice, not only inside the backing array
+    private void checkRange(int index, int size) {
+        if (index < 0 || size < 0 || index > length - size) {
+            throw new IndexOutOfBoundsException(index);
+        }
     }
 
     public IntArray asIntArray() {
         return new IntArray(this);
     }
 
-    public UnsignedByteArray fillToLength(int length, int fillValue) {
-        if (length <= this.length()) {
-            throw new IllegalArgumentException("Array length >= provided length");
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(array, offset, length).slice();
+    }
+
+    public UnsignedByteArray slice(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || fromIndex > toIndex || toIndex > length) {
+            throw new IndexOutOfBoundsException();
         }
+        return new UnsignedByteArray(array, offset + fromIndex, toIndex - fromIndex);
+    }
 
-        UnsignedByteArray array = new UnsignedByteArray(length);
+    public void copyTo(int fromIndex, UnsignedByteArray destination, int destinationIndex, int count) {
+        checkRange(fromIndex, count);
+        destination.checkRange(destinationIndex, count);
+        System.arraycopy(this.array, this.offset + fromIndex,
+                destination.array, destination.offset + destinationIndex, count);
+    }
 
-        for (int i = 0; i < this.length(); i++) {
-            array.set(i, this.get(i));
+    public void copyTo(int fromIndex, byte[] destination, int destinationIndex, int count) {
+        checkRange(fromIndex, count);
+        System.arraycopy(this.array, this.offset + fromIndex, destination, destinationIndex, count);
+    }
+
+    public void copyFrom(int index, byte[] source, int sourceIndex, int count) {
+        checkRange(index, count);
+        System.arraycopy(source, sourceIndex, this.array, this.offset + index, count);
+    }
+
+    public void fill(int fromIndex, int toIndex, int value) {
+        if (fromIndex < 0 || fromIndex > toIndex || toIndex > length) {
+            throw new IndexOutOfBoundsException();
         }
+        Arrays.fill(array, offset + fromIndex, offset + toIndex, (byte) value);
+    }
+
+    public void fill(int value) {
+        fill(0, length, value);
+    }
 
-        for (int i = this.length(); i < array.length(); i++) {
-            array.set(i, fillValue);
+    public UnsignedByteArray fillToLength(int length, int fillValue) {
+        if (length <= this.length()) {
+            throw new IllegalArgumentException("Array length >= provided length");
         }
 
+        UnsignedByteArray array = new UnsignedByteArray(length);
+        this.copyTo(0, array, 0, this.length());
+        array.fill(this.length(), length, fillValue);
+
         return array;
     }
 
@@ -68,33 +189,28 @@ public class UnsignedByteArray {
 
         UnsignedByteArray other = (UnsignedByteArray) obj;
 
-        if (this.length() != other.length()) {
-            return false;
-        }
+        return Arrays.equals(this.array, this.offset, this.offset + this.length,
+                other.array, other.offset, other.offset + other.length);
+    }
 
-        for (int i = 0; i < this.length(); i++) {
-            if (this.get(i) != other.get(i)) {
-                return false;
-            }
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = offset; i < offset + length; i++) {
+            result = 31 * result + array[i];
         }
-
-        return true;
+        return result;
     }
 
     public UnsignedByteArray subArray(int fromIndex, int toIndex) {
-        UnsignedByteArray array = new UnsignedByteArray(toIndex - fromIndex);
-
-        for (int i = fromIndex, j = 0; i < toIndex; i++, j++) {
-            array.set(j, this.get(i));
+        if (fromIndex < 0 || fromIndex > toIndex || toIndex > length) {
+            throw new IndexOutOfBoundsException();
         }
-
-        return array;
+        return wrap(Arrays.copyOfRange(array, offset + fromIndex, offset + toIndex));
     }
 
     public void setSubArray(int index, UnsignedByteArray data) {
-        for (int i = 0, j = index; i < data.length(); i++, j++) {
-            this.set(j, data.get(i));
-        }
+        data.copyTo(0, this, index, data.length());
     }
 
     public UnsignedByteArray subArray(int toIndex) {
@@ -102,13 +218,8 @@ public class UnsignedByteArray {
     }
 
     public static UnsignedByteArray fromInt(int value) {
-        UnsignedByteArray array = new UnsignedByteArray(4);
-
-        for (int i = 3; i >= 0; i--) {
-            array.set(i, value);
-            value >>= 8;
-        }
-
+        UnsignedByteArray array = new UnsignedByteArray(Integer.BYTES);
+        array.setInt(0, value);
         return array;
     }
 
@@ -117,19 +228,15 @@ public class UnsignedByteArray {
             return null;
         }
 
-        byte[] array = new byte[4];
-        for (int i = 0; i < this.length(); i++) {
-            array[i + 4 - this.length()] = this.array[i];
+        int value = 0;
+        for (int i = 0; i < length(); i++) {
+            value = (value << 8) | get(i);
         }
-        return ByteBuffer.wrap(array).getInt();
+        return value;
     }
 
     public String toAsciiString() {
-        StringBuilder stringBuilder = new StringBuilder();
-        for (int i = 0; i < this.length(); i++) {
-            stringBuilder.append((char)this.get(i));
-        }
-        return stringBuilder.toString();
+        return new String(array, offset, length, StandardCharsets.ISO_8859_1);
     }
 
     public boolean all(Predicate<Integer> condition) {
@@ -144,6 +251,10 @@ public class UnsignedByteArray {
 
     @Override
     public String toString() {
+        if (this.length() == 0) {
+            return "{}";
+        }
+
         StringBuilder stringBuilder = new StringBuilder("{");
 
         int i = 0;
@@ -0,0 +1,119 @@
+import array.UnsignedByteArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncFileSystemTest {
+    private FileSystem fileSystem;
+    private AsyncFileSystem async;
+
+    @Before
+    public void setUp() {
+        fileSystem = new FileSystem(2048, 512);
+        async = new AsyncFileSystem(fileSystem);
+    }
+
+    @After
+    public void tearDown() {
+        async.close();
+    }
+
+    @Test
+    public void writesAndReadsBack() throws Exception {
+        async.createAsync(path("a")).get();
+        int index = async.openAsync(path("a")).get();
+        byte[] data = new byte[5000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        // queued back to back, so they go out as one batch
+        var first = async.writeAsync(index, 0, UnsignedByteArray.wrap(data, 0, 3000));
+        var second = async.writeAsync(index, 3000, UnsignedByteArray.wrap(data, 3000, 2000));
+        assertEquals(3000, (int) first.get());
+        assertEquals(2000, (int) second.get());
+
+        UnsignedByteArray read = async.readAsync(index, 0, 6000).get();
+        assertEquals(5000, read.length());
+        byte[] bytes = new byte[read.length()];
+        read.copyTo(0, bytes, 0, bytes.length);
+        assertArrayEquals(data, bytes);
+        async.closeAsync(index).get();
+    }
+
+    @Test
+    public void failuresSayWhy() throws Exception {
+        async.createAsync(path("a")).get();
+        expect(Failure.ALREADY_EXISTS, async.createAsync(path("a")));
+        expect(Failure.INVALID_NAME, async.createAsync(path("..")));
+        expect(Failure.NOT_FOUND, async.openAsync(path("missing")));
+        expect(Failure.NOT_FOUND, async.createAsync(path("missing/a")));
+
+        async.mkdirAsync(path("d")).get();
+        expect(Failure.IS_DIRECTORY, async.openAsync(path("d")));
+        async.createAsync(path("d/x")).get();
+        expect(Failure.DIRECTORY_NOT_EMPTY, async.destroyAsync(path("d")));
+
+        int index = async.openAsync(path("a")).get();
+        expect(Failure.ALREADY_OPEN, async.openAsync(path("a")));
+        expect(Failure.ALREADY_OPEN, async.destroyAsync(path("a")));
+        expect(Failure.POSITION_OUT_OF_RANGE, async.readAsync(index, 1, 1));
+        expect(Failure.POSITION_OUT_OF_RANGE, async.writeAsync(index, -1, path("x")));
+        expect(Failure.NEGATIVE_COUNT, async.readAsync(index, 0, -1));
+        expect(Failure.BAD_HANDLE, async.readAsync(0, 0, 1));
+        async.closeAsync(index).get();
+        expect(Failure.NOT_OPEN, async.closeAsync(index));
+    }
+
+    // a write the disk cuts short fails, and says how much of it was written
+    @Test
+    public void shortWriteFails() throws Exception {
+        async.createAsync(path("a")).get();
+        int index = async.openAsync(path("a")).get();
+        var data = new UnsignedByteArray(2048 * 512);
+        try {
+            async.writeAsync(index, 0, data).get();
+            fail("no " + Failure.NO_SPACE);
+        } catch (ExecutionException e) {
+            var cause = (FileSystemException) e.getCause();
+            assertEquals(Failure.NO_SPACE, cause.getFailure());
+            assertTrue(cause.getBytesTransferred() > 0 && cause.getBytesTransferred() < data.length());
+            assertEquals(cause.getBytesTransferred(), (int) async.readAsync(index, 0, data.length()).get().length());
+        }
+    }
+
+    // a call that succeeds clears the reason an earlier one left behind
+    @Test
+    public void successClearsTheLastFailure() {
+        assertEquals(-1, fileSystem.open(path("missing")));
+        assertEquals(Failure.NOT_FOUND, fileSystem.lastFailure());
+        assertTrue(fileSystem.lastFailureMessage() != null);
+
+        assertTrue(fileSystem.create(path("a")));
+        assertNull(fileSystem.lastFailure());
+        assertNull(fileSystem.lastFailureMessage());
+    }
+
+    private static void expect(Failure failure, CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("no " + failure);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), e.getCause() instanceof FileSystemException);
+            assertEquals(failure, ((FileSystemException) e.getCause()).getFailure());
+        }
+    }
+
+    private static UnsignedByteArray path(String name) {
+        return new UnsignedByteArray(name);
+    }
+}
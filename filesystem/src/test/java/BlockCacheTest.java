@@ -0,0 +1,313 @@
+import array.UnsignedByteArray;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class BlockCacheTest {
+    private static final int LENGTH = 64;
+    private static final int BLOCK_SIZE = 32;
+
+    @Test
+    public void hitsAndMisses() {
+        var disk = new CountingIOSystem(LENGTH, BLOCK_SIZE);
+        disk.writeBlock(5, block(5));
+        var cache = new BlockCache(disk, 4);
+        var read = new UnsignedByteArray(BLOCK_SIZE);
+
+        cache.readBlock(5, read);
+        assertEquals(block(5), read);
+        cache.readBlock(5, read);
+        assertEquals(block(5), read);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, disk.blocksRead);
+    }
+
+    // write-back leaves the device alone until flush, which writes adjacent blocks with one call
+    @Test
+    public void flushWritesBackRuns() {
+        var disk = new CountingIOSystem(LENGTH, BLOCK_SIZE);
+        var cache = new BlockCache(disk, 16);
+        for (int i = 10; i < 14; i++) {
+            cache.writeBlock(i, block(i));
+        }
+        cache.writeBlock(20, block(20));
+        assertEquals(0, disk.blocksWritten);
+        // whole blocks are not read before they are overwritten
+        assertEquals(0, disk.blocksRead);
+
+        cache.flush();
+        assertEquals(5, disk.blocksWritten);
+        assertEquals(2, disk.writeCalls);
+        for (int i : new int[] {10, 11, 12, 13, 20}) {
+            assertEquals(block(i), disk.read(i));
+        }
+
+        // nothing is dirty after a flush
+        cache.flush();
+        assertEquals(5, disk.blocksWritten);
+    }
+
+    @Test
+    public void writeThroughWritesAtOnce() {
+        var disk = new CountingIOSystem(LENGTH, BLOCK_SIZE);
+        var cache = new BlockCache(disk, 16, true);
+        cache.writeBlock(7, block(7));
+        assertEquals(1, disk.blocksWritten);
+        assertEquals(block(7), disk.read(7));
+    }
+
+    // a dirty block that is evicted is written first, so reading it again finds the new data
+    @Test
+    public void evictionWritesBack() {
+        var disk = new CountingIOSystem(LENGTH, BLOCK_SIZE);
+        var cache = new BlockCache(disk, 2);
+        for (int i = 0; i < 8; i++) {
+            cache.writeBlock(i, block(i));
+        }
+        assertEquals(6, disk.blocksWritten);
+
+        var read = new UnsignedByteArray(BLOCK_SIZE);
+        for (int i = 0; i < 8; i++) {
+            cache.readBlock(i, read);
+            assertEquals(block(i), read);
+        }
+    }
+
+    // a pinned frame keeps its block however many others pass through
+    @Test
+    public void pinnedFrameStays() {
+        var disk = new CountingIOSystem(LENGTH, BLOCK_SIZE);
+        var cache = new BlockCache(disk, 2);
+        BlockCache.Frame frame = cache.pin(3, true);
+        try {
+            block(3).copyTo(0, frame.getData(), 0, BLOCK_SIZE);
+            var read = new UnsignedByteArray(BLOCK_SIZE);
+            for (int i = 10; i < 20; i++) {
+                cache.readBlock(i, read);
+            }
+            assertEquals(block(3), frame.getData());
+        } finally {
+            cache.unpin(frame, true);
+        }
+
+        assertNotEquals(block(3), disk.read(3));
+        cache.flush();
+        assertEquals(block(3), disk.read(3));
+    }
+
+    // the blocks that are not cached are read with one call per run, after which reading them is all hits
+    @Test
+    public void prefetchReadsRuns() {
+        var disk = new CountingIOSystem(LENGTH, BLOCK_SIZE);
+        for (int i = 0; i < 16; i++) {
+            disk.writeBlock(i, block(i));
+        }
+        disk.blocksWritten = 0;
+        var cache = new BlockCache(disk, 32);
+        var read = new UnsignedByteArray(BLOCK_SIZE);
+        cache.readBlock(4, read);
+        disk.blocksRead = 0;
+        disk.readCalls = 0;
+
+        cache.prefetch(0, 16);
+        assertEquals(15, disk.blocksRead);
+        assertEquals(2, disk.readCalls);
+
+        long misses = cache.getMisses();
+        for (int i = 0; i < 16; i++) {
+            cache.readBlock(i, read);
+            assertEquals(block(i), read);
+        }
+        assertEquals(misses, cache.getMisses());
+    }
+
+    // a prefetch starts every run before any read is done, and a block being read is waited for, not read twice
+    @Test
+    public void prefetchRunsAreInFlightTogether() {
+        var disk = new DeferredIOSystem(LENGTH, BLOCK_SIZE);
+        for (int i = 0; i < 16; i++) {
+            disk.writeBlock(i, block(i));
+        }
+        var cache = new BlockCache(disk, 32);
+        var read = new UnsignedByteArray(BLOCK_SIZE);
+        cache.readBlock(4, read);
+
+        cache.prefetch(0, 16);
+        assertEquals(2, disk.pendingCount());
+        disk.completeAll();
+        long misses = cache.getMisses();
+        for (int i = 0; i < 16; i++) {
+            cache.readBlock(i, read);
+            assertEquals(block(i), read);
+        }
+        assertEquals(misses, cache.getMisses());
+    }
+
+    // a prefetch that fails leaves nothing behind, so the block is read when it is used
+    @Test
+    public void failedPrefetchIsForgotten() {
+        var disk = new DeferredIOSystem(LENGTH, BLOCK_SIZE);
+        for (int i = 0; i < 8; i++) {
+            disk.writeBlock(i, block(i));
+        }
+        var cache = new BlockCache(disk, 16);
+        cache.prefetch(0, 8);
+        disk.failAll();
+
+        var read = new UnsignedByteArray(BLOCK_SIZE);
+        for (int i = 0; i < 8; i++) {
+            cache.readBlock(i, read);
+            assertEquals(block(i), read);
+        }
+        assertEquals(8, cache.getMisses());
+    }
+
+    // a flush has every run written at once and returns when they are all done
+    @Test
+    public void flushWaitsForAllRuns() throws Exception {
+        var disk = new DeferredIOSystem(LENGTH, BLOCK_SIZE);
+        var cache = new BlockCache(disk, 16);
+        for (int i : new int[] {1, 2, 3, 9, 10, 30}) {
+            cache.writeBlock(i, block(i));
+        }
+
+        var flush = CompletableFuture.runAsync(cache::flush);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (disk.pendingCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(3, disk.pendingCount());
+        assertFalse(flush.isDone());
+        disk.completeAll();
+        flush.get(5, TimeUnit.SECONDS);
+        for (int i : new int[] {1, 2, 3, 9, 10, 30}) {
+            var p = new UnsignedByteArray(BLOCK_SIZE);
+            disk.readBlock(i, p);
+            assertEquals(block(i), p);
+        }
+    }
+
+    private static UnsignedByteArray block(int seed) {
+        var block = new UnsignedByteArray(BLOCK_SIZE);
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            block.set(i, (seed * 7 + i + 1) & 0xFF);
+        }
+        return block;
+    }
+
+    private static class CountingIOSystem extends MemoryIOSystem {
+        private int blocksRead;
+        private int blocksWritten;
+        private int readCalls;
+        private int writeCalls;
+
+        CountingIOSystem(int length, int blockSize) {
+            super(length, blockSize);
+        }
+
+        @Override
+        public void readBlock(int i, UnsignedByteArray p) {
+            blocksRead++;
+            readCalls++;
+            super.readBlock(i, p);
+        }
+
+        @Override
+        public void writeBlock(int i, UnsignedByteArray p) {
+            blocksWritten++;
+            writeCalls++;
+            super.writeBlock(i, p);
+        }
+
+        @Override
+        public void readBlocks(int first, int count, UnsignedByteArray p) {
+            blocksRead += count;
+            readCalls++;
+            for (int k = 0; k < count; k++) {
+                super.readBlock(first + k, p.slice(k * getBlockSize(), (k + 1) * getBlockSize()));
+            }
+        }
+
+        @Override
+        public void writeBlocks(int first, int count, UnsignedByteArray p) {
+            blocksWritten += count;
+            writeCalls++;
+            for (int k = 0; k < count; k++) {
+                super.writeBlock(first + k, p.slice(k * getBlockSize(), (k + 1) * getBlockSize()));
+            }
+        }
+
+        // block i without counting it
+        UnsignedByteArray read(int i) {
+            var p = new UnsignedByteArray(getBlockSize());
+            super.readBlock(i, p);
+            return p;
+        }
+    }
+
+    // holds every asynchronous read and write until the test completes or fails it
+    private static class DeferredIOSystem extends MemoryIOSystem {
+        private final List<Runnable> pending = new ArrayList<>();
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        DeferredIOSystem(int length, int blockSize) {
+            super(length, blockSize);
+        }
+
+        @Override
+        public synchronized CompletableFuture<Void> readBlocksAsync(int first, int count, UnsignedByteArray p) {
+            var future = new CompletableFuture<Void>();
+            pending.add(() -> super.readBlocks(first, count, p));
+            futures.add(future);
+            return future;
+        }
+
+        @Override
+        public synchronized CompletableFuture<Void> writeBlocksAsync(int first, int count, UnsignedByteArray p) {
+            var future = new CompletableFuture<Void>();
+            pending.add(() -> super.writeBlocks(first, count, p));
+            futures.add(future);
+            return future;
+        }
+
+        synchronized int pendingCount() {
+            return pending.size();
+        }
+
+        void completeAll() {
+            finish(true);
+        }
+
+        void failAll() {
+            finish(false);
+        }
+
+        private void finish(boolean complete) {
+            List<Runnable> runs;
+            List<CompletableFuture<Void>> done;
+            synchronized (this) {
+                runs = new ArrayList<>(pending);
+                done = new ArrayList<>(futures);
+                pending.clear();
+                futures.clear();
+            }
+            for (int k = 0; k < runs.size(); k++) {
+                if (complete) {
+                    runs.get(k).run();
+                    done.get(k).complete(null);
+                } else {
+                    done.get(k).completeExceptionally(new IOException("failed on purpose"));
+                }
+            }
+        }
+    }
+}
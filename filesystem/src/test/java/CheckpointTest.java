@@ -0,0 +1,137 @@
+import array.UnsignedByteArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointTest {
+    private static final int LENGTH = 2048;
+    private static final int BLOCK_SIZE = 512;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("checkpoint-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // a file still open at sync is as long on the disk as it is in its handle
+    @Test
+    public void syncKeepsOpenFileLength() {
+        var disk = new MemoryIOSystem(LENGTH, BLOCK_SIZE);
+        var fileSystem = new FileSystem(disk);
+        assertTrue(fileSystem.create(path("a")));
+        int index = fileSystem.open(path("a"));
+        assertEquals(3000, fileSystem.write(index, data(3000, 1), 3000));
+        fileSystem.sync();
+
+        var mounted = new FileSystem(disk);
+        assertEquals(3000, length(mounted, "a"));
+        check(mounted, "a", data(3000, 1));
+    }
+
+    // init of a checkpoint gives back the disk as it was at the checkpoint
+    @Test
+    public void checkpointRoundTrip() {
+        var fileSystem = new FileSystem(LENGTH, BLOCK_SIZE);
+        write(fileSystem, "a", data(5000, 1));
+        write(fileSystem, "b", data(700, 2));
+        String image = directory.resolve("disk.img").toString();
+        assertTrue(fileSystem.save(image));
+
+        // open files stay open across a checkpoint, and their lengths go with it
+        assertTrue(fileSystem.destroy(path("b")));
+        write(fileSystem, "c", data(1200, 3));
+        int a = fileSystem.open(path("a"));
+        assertEquals(100, fileSystem.lseek(a, 100));
+        assertEquals(6000, fileSystem.write(a, data(6000, 4), 6000));
+        assertTrue(fileSystem.checkpoint(image));
+        assertEquals(a, fileSystem.close(a));
+
+        var expected = new UnsignedByteArray(6100);
+        data(5000, 1).copyTo(0, expected, 0, 100);
+        data(6000, 4).copyTo(0, expected, 100, 6000);
+        var restored = new FileSystem(LENGTH, BLOCK_SIZE);
+        assertTrue(restored.init(image));
+        assertEquals(-1, restored.open(path("b")));
+        check(restored, "a", expected);
+        check(restored, "c", data(1200, 3));
+
+        // a second checkpoint on top of the first
+        write(fileSystem, "d", data(50, 5));
+        assertTrue(fileSystem.checkpoint(image));
+        var again = new FileSystem(LENGTH, BLOCK_SIZE);
+        assertTrue(again.init(image));
+        check(again, "a", expected);
+        check(again, "d", data(50, 5));
+    }
+
+    // a checkpoint to a file the disk was not saved to is a whole save
+    @Test
+    public void checkpointToAnotherFileSavesAll() {
+        var fileSystem = new FileSystem(LENGTH, BLOCK_SIZE);
+        write(fileSystem, "a", data(2500, 6));
+        assertTrue(fileSystem.save(directory.resolve("first.img").toString()));
+        write(fileSystem, "b", data(10, 7));
+
+        String other = directory.resolve("other.img").toString();
+        assertTrue(fileSystem.checkpoint(other));
+        var restored = new FileSystem(LENGTH, BLOCK_SIZE);
+        assertTrue(restored.init(other));
+        check(restored, "a", data(2500, 6));
+        check(restored, "b", data(10, 7));
+    }
+
+    private static void write(FileSystem fileSystem, String name, UnsignedByteArray data) {
+        assertTrue(fileSystem.create(path(name)));
+        int index = fileSystem.open(path(name));
+        assertEquals(data.length(), fileSystem.write(index, data, data.length()));
+        assertEquals(index, fileSystem.close(index));
+    }
+
+    private static void check(FileSystem fileSystem, String name, UnsignedByteArray data) {
+        int index = fileSystem.open(path(name));
+        assertNotEquals(name, -1, index);
+        var read = new UnsignedByteArray(data.length() + 1);
+        assertEquals(name, data.length(), fileSystem.read(index, read, read.length()));
+        assertEquals(name, data, read.slice(0, data.length()));
+        assertEquals(index, fileSystem.close(index));
+    }
+
+    private static int length(FileSystem fileSystem, String name) {
+        for (var entry : fileSystem.directory()) {
+            if (entry.getFirstValue().equals(name)) {
+                return entry.getSecondValue();
+            }
+        }
+        return -1;
+    }
+
+    private static UnsignedByteArray path(String name) {
+        return new UnsignedByteArray(name);
+    }
+
+    private static UnsignedByteArray data(int length, int seed) {
+        var data = new UnsignedByteArray(length);
+        for (int i = 0; i < length; i++) {
+            data.set(i, (i * seed + i / 11) & 0xFF);
+        }
+        return data;
+    }
+}
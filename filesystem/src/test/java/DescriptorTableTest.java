@@ -0,0 +1,89 @@
+import array.UnsignedByteArray;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DescriptorTableTest {
+    private static final int LENGTH = 2048;
+    private static final int BLOCK_SIZE = 64;
+
+    // after any mix of creates and destroys, the bitmap on the disk marks exactly the descriptors in use
+    @Test
+    public void usedBitmapIsPersisted() {
+        var disk = new MemoryIOSystem(LENGTH, BLOCK_SIZE);
+        var fileSystem = new FileSystem(disk);
+        var random = new Random(1);
+        Set<String> files = new HashSet<>();
+        for (int step = 0; step < 2000; step++) {
+            String name = "f" + random.nextInt(300);
+            if (files.contains(name)) {
+                assertTrue(fileSystem.destroy(new UnsignedByteArray(name)));
+                files.remove(name);
+            } else if (fileSystem.create(new UnsignedByteArray(name))) {
+                files.add(name);
+            }
+            if (step % 500 == 499) {
+                fileSystem.sync();
+                checkUsed(disk, files.size() + 1);
+            }
+        }
+    }
+
+    // a disk formatted before the bitmap was kept has no room for it, and gets it rebuilt on every mount
+    @Test
+    public void regionWithoutBitmap() {
+        var disk = new MemoryIOSystem(LENGTH, BLOCK_SIZE);
+        new FileSystem(disk).sync();
+        var block = new UnsignedByteArray(BLOCK_SIZE);
+        disk.readBlock(Superblock.BLOCK_INDEX, block);
+        int count = block.getInt(12);
+        block.setInt(28, (count * DescriptorTable.DESCRIPTOR_SIZE + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        disk.writeBlock(Superblock.BLOCK_INDEX, block);
+
+        var fileSystem = new FileSystem(disk);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(fileSystem.create(new UnsignedByteArray("f" + i)));
+        }
+        assertTrue(fileSystem.destroy(new UnsignedByteArray("f3")));
+        fileSystem.sync();
+
+        fileSystem = new FileSystem(disk);
+        for (int i = 20; i < 40; i++) {
+            assertTrue(fileSystem.create(new UnsignedByteArray("f" + i)));
+        }
+        for (int i = 0; i < 40; i++) {
+            int index = fileSystem.open(new UnsignedByteArray("f" + i));
+            assertEquals("f" + i, i == 3, index == -1);
+            if (index != -1) {
+                assertNotEquals(-1, fileSystem.close(index));
+            }
+        }
+    }
+
+    private static void checkUsed(IOSystem disk, int inUse) {
+        var superblock = new Superblock(disk);
+        assertTrue(superblock.read());
+        var descriptorTable = new DescriptorTable(disk, superblock, false);
+        int count = superblock.getDescriptorCount();
+        int first = superblock.getDescriptorTableStart()
+                + (count * DescriptorTable.DESCRIPTOR_SIZE + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        var block = new UnsignedByteArray(BLOCK_SIZE);
+        int marked = 0;
+        for (int d = 0; d < count; d++) {
+            if (d % (BLOCK_SIZE * Byte.SIZE) == 0) {
+                disk.readBlock(first + d / (BLOCK_SIZE * Byte.SIZE), block);
+            }
+            int k = d % (BLOCK_SIZE * Byte.SIZE);
+            boolean bit = (block.get(k / Byte.SIZE) & (0x80 >>> (k % Byte.SIZE))) != 0;
+            assertEquals("descriptor " + d, descriptorTable.getExtentStart(d, 0) != 0, bit);
+            marked += bit ? 1 : 0;
+        }
+        assertEquals(inUse, marked);
+    }
+}
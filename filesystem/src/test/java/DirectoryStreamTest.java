@@ -0,0 +1,128 @@
+import array.UnsignedByteArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// entries streams a directory a bucket at a time without holding the directory lock in between
+public class DirectoryStreamTest {
+    private static final int FILES = 300;
+
+    private FileSystem fileSystem;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        fileSystem = new FileSystem(2048, 512);
+        assertTrue(fileSystem.mkdir(path("d")));
+        for (int i = 0; i < FILES; i++) {
+            assertTrue(fileSystem.create(path("d/f" + i)));
+        }
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    // an open stream does not hold up a writer on another thread, and notices the change afterwards
+    @Test
+    public void writerIsNotBlocked() throws Exception {
+        var entries = fileSystem.entries(path("d")).iterator();
+        entries.next();
+        assertTrue(executor.submit(() -> fileSystem.create(path("d/x"))).get(5, TimeUnit.SECONDS));
+        expectChanged(entries);
+    }
+
+    // only a change to the directory being listed counts
+    @Test
+    public void otherDirectoriesDoNotCount() {
+        var entries = fileSystem.entries(path("d")).iterator();
+        entries.next();
+        assertTrue(fileSystem.create(path("other")));
+        int count = 1;
+        while (entries.hasNext()) {
+            entries.next();
+            count++;
+        }
+        assertEquals(FILES, count);
+    }
+
+    // a directory destroyed under a stream, whose descriptor may already belong to another, is not read on
+    @Test
+    public void destroyedDirectory() {
+        assertTrue(fileSystem.mkdir(path("e")));
+        assertTrue(fileSystem.create(path("e/1")));
+        assertTrue(fileSystem.create(path("e/2")));
+        var entries = fileSystem.entries(path("e")).iterator();
+        assertTrue(fileSystem.destroy(path("e/1")));
+        assertTrue(fileSystem.destroy(path("e/2")));
+        assertTrue(fileSystem.destroy(path("e")));
+        assertTrue(fileSystem.mkdir(path("f")));
+        expectChanged(entries);
+    }
+
+    @Test
+    public void parallelMatchesSequential() {
+        Set<String> listed = new HashSet<>();
+        for (var entry : fileSystem.directory(path("d"))) {
+            listed.add(entry.getFirstValue());
+        }
+        Set<String> streamed = fileSystem.entries(path("d")).parallel()
+                .map(Pair::getFirstValue).collect(Collectors.toSet());
+        assertEquals(FILES, streamed.size());
+        assertEquals(listed, streamed);
+    }
+
+    // init replaces every directory, so a stream from before it stops
+    @Test
+    public void initEndsStreams() throws IOException {
+        Path image = Files.createTempFile("directory-stream-test", ".img");
+        try {
+            assertTrue(fileSystem.save(image.toString()));
+            var entries = fileSystem.entries(path("d")).iterator();
+            assertTrue(fileSystem.init(image.toString()));
+            expectChanged(entries);
+        } finally {
+            Files.delete(image);
+        }
+    }
+
+    @Test
+    public void missingDirectory() {
+        assertNull(fileSystem.entries(path("missing")));
+        assertEquals(Failure.NOT_FOUND, fileSystem.lastFailure());
+    }
+
+    private static void expectChanged(Iterator<?> entries) {
+        try {
+            while (entries.hasNext()) {
+                entries.next();
+            }
+            fail("no ConcurrentModificationException");
+        } catch (ConcurrentModificationException expected) {
+            // the directory changed
+        }
+    }
+
+    private static UnsignedByteArray path(String name) {
+        return new UnsignedByteArray(name);
+    }
+}
@@ -0,0 +1,192 @@
+import array.UnsignedByteArray;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+// Directories grown and shrunk through a FileSystem: splits, freed overflow pages, bounded lookups and a full disk
+public class DirectoryTest {
+    // the directory grows and shrinks through splits and freed overflow pages, and is mounted again now and then
+    @Test
+    public void churn() {
+        for (long seed = 1; seed <= 3; seed++) {
+            churn(seed, 512, 12);
+        }
+        churn(4, 64, 255);
+    }
+
+    private void churn(long seed, int blockSize, int maxNameLength) {
+        var random = new Random(seed);
+        var disk = new MemoryIOSystem(20000, blockSize);
+        var fileSystem = new FileSystem(disk, false, 64, 256);
+        assertTrue(fileSystem.mkdir(new UnsignedByteArray("d")));
+        List<String> pool = names(random, 1500, maxNameLength);
+        Set<String> model = new HashSet<>();
+
+        for (int step = 0; step < 12000; step++) {
+            String at = "seed " + seed + " step " + step;
+            String name = pool.get(random.nextInt(pool.size()));
+            boolean growing = step % 4000 < 2500;
+            if (random.nextBoolean() == growing || model.isEmpty()) {
+                assertEquals(at, model.add(name), fileSystem.create(path(name)));
+            } else {
+                String victim = random.nextInt(4) == 0 ? name : model.iterator().next();
+                assertEquals(at, model.remove(victim), fileSystem.destroy(path(victim)));
+            }
+
+            if (step % 997 == 0) {
+                fileSystem.sync();
+                fileSystem = new FileSystem(disk, false, 64, 256);
+                Set<String> listed = new HashSet<>();
+                for (var entry : fileSystem.directory(new UnsignedByteArray("d"))) {
+                    assertTrue(at + " lists twice " + entry.getFirstValue(), listed.add(entry.getFirstValue()));
+                }
+                assertEquals(at, model, listed);
+                for (String m : model) {
+                    int index = fileSystem.open(path(m));
+                    assertTrue(at + " lost " + m, index != -1);
+                    fileSystem.close(index);
+                }
+            }
+        }
+
+        for (String m : model) {
+            assertTrue(fileSystem.destroy(path(m)));
+        }
+        assertTrue(fileSystem.destroy(new UnsignedByteArray("d")));
+    }
+
+    // a lookup reads page 0 and its bucket's chain, however many entries the directory holds
+    @Test
+    public void lookupReadsFewPages() {
+        int blockSize = 64;
+        var disk = new MemoryIOSystem(65536, blockSize);
+        var fileSystem = new FileSystem(disk, false, 64, 1024);
+        assertTrue(fileSystem.mkdir(new UnsignedByteArray("d")));
+        List<String> names = names(new Random(1), 3000, 205);
+        for (String name : names) {
+            assertTrue(fileSystem.create(path(name)));
+        }
+        fileSystem.sync();
+
+        var counting = new CountingIOSystem(disk);
+        var superblock = new Superblock(counting);
+        assertTrue(superblock.read());
+        var descriptorTable = new DescriptorTable(counting, superblock, true);
+        var blockMap = new BlockMap(counting, new Bitmap(counting, superblock), descriptorTable);
+        var directory = new Directory(counting, blockMap, descriptorTable);
+        int d = directory.find(0, "d").getDescriptorIndex();
+
+        int pageBlocks = Directory.pageBlocks(blockSize);
+        int pages = descriptorTable.getFileLength(d) / (pageBlocks * blockSize);
+        int most = 0;
+        for (String name : names) {
+            counting.reads = 0;
+            assertNotNull(name, directory.find(d, name));
+            most = Math.max(most, counting.reads);
+        }
+        assertTrue("pages " + pages, pages > 100);
+        assertTrue("a lookup read " + most + " blocks", most <= 8 * pageBlocks);
+    }
+
+    // splits that run out of disk leave every entry in place and every block accounted for
+    @Test
+    public void fullDisk() {
+        for (int fill = 0; fill < 400; fill += 21) {
+            var disk = new MemoryIOSystem(1200, 64);
+            var fileSystem = new FileSystem(disk, false, 64, 64);
+            // the root directory's first page
+            assertTrue(fileSystem.create(new UnsignedByteArray("keep")));
+            int free = freeBlocks(fileSystem, disk);
+
+            fileSystem.mkdir(new UnsignedByteArray("d"));
+            fileSystem.create(new UnsignedByteArray("big"));
+            int index = fileSystem.open(new UnsignedByteArray("big"));
+            fileSystem.write(index, new UnsignedByteArray("x"), (free - 120 - fill) * 64);
+            fileSystem.close(index);
+            List<String> created = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                String name = "file" + i + "_".repeat(i % 50);
+                if (fileSystem.create(path(name))) {
+                    created.add(name);
+                }
+            }
+
+            fileSystem.sync();
+            fileSystem = new FileSystem(disk, false, 64, 64);
+            Set<String> listed = new HashSet<>();
+            for (var entry : fileSystem.directory(new UnsignedByteArray("d"))) {
+                listed.add(entry.getFirstValue());
+            }
+            assertEquals("fill " + fill, new HashSet<>(created), listed);
+
+            for (String name : created) {
+                assertTrue(fileSystem.destroy(path(name)));
+            }
+            assertTrue(fileSystem.destroy(new UnsignedByteArray("d")));
+            assertTrue(fileSystem.destroy(new UnsignedByteArray("big")));
+            assertEquals("fill " + fill, free, freeBlocks(fileSystem, disk));
+        }
+    }
+
+    private static UnsignedByteArray path(String name) {
+        return new UnsignedByteArray("d/" + name);
+    }
+
+    private static List<String> names(Random random, int count, int maxLength) {
+        var names = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            var name = new StringBuilder("n" + i + "_");
+            int length = 1 + random.nextInt(maxLength);
+            while (name.length() < length) {
+                name.append((char) ('a' + random.nextInt(26)));
+            }
+            names.add(name.substring(0, Math.min(Directory.MAX_NAME_LENGTH, name.length())));
+        }
+        return names;
+    }
+
+    private static int freeBlocks(FileSystem fileSystem, IOSystem disk) {
+        fileSystem.sync();
+        var superblock = new Superblock(disk);
+        superblock.read();
+        return new Bitmap(disk, superblock).getFreeBlockCount();
+    }
+
+    private static class CountingIOSystem extends IOSystem {
+        private final IOSystem disk;
+        private int reads;
+
+        CountingIOSystem(IOSystem disk) {
+            this.disk = disk;
+        }
+
+        @Override
+        public void readBlock(int i, UnsignedByteArray p) {
+            reads++;
+            disk.readBlock(i, p);
+        }
+
+        @Override
+        public void writeBlock(int i, UnsignedByteArray p) {
+            disk.writeBlock(i, p);
+        }
+
+        @Override
+        public int getLength() {
+            return disk.getLength();
+        }
+
+        @Override
+        public int getBlockSize() {
+            return disk.getBlockSize();
+        }
+    }
+}
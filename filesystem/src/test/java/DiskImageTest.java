@@ -0,0 +1,147 @@
+import array.UnsignedByteArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DiskImageTest {
+    private static final int LENGTH = 2048;
+    private static final int BLOCK_SIZE = 512;
+    private static final int TEXT_LENGTH = 256;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("disk-image-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void binaryImageRoundTrip() {
+        var fileSystem = new FileSystem(LENGTH, BLOCK_SIZE);
+        byte[] data = populate(fileSystem);
+        String image = directory.resolve("disk.img").toString();
+        assertTrue(fileSystem.save(image));
+
+        var restored = new FileSystem(LENGTH, BLOCK_SIZE);
+        assertTrue(restored.init(image));
+        checkPopulated(restored, data);
+    }
+
+    // the text format spells out every byte, so a smaller disk keeps this quick
+    @Test
+    public void textImageRoundTrip() {
+        var fileSystem = new FileSystem(TEXT_LENGTH, BLOCK_SIZE);
+        byte[] data = populate(fileSystem);
+        String text = directory.resolve("disk.txt").toString();
+        assertTrue(fileSystem.export(text));
+
+        var restored = new FileSystem(TEXT_LENGTH, BLOCK_SIZE);
+        assertTrue(restored.init(text));
+        checkPopulated(restored, data);
+    }
+
+    // every block carries a checksum, so a flipped byte anywhere in the data is found when the block is read
+    @Test
+    public void corruptedBlockIsFound() throws IOException {
+        var fileSystem = new FileSystem(LENGTH, BLOCK_SIZE);
+        populate(fileSystem);
+        Path image = directory.resolve("disk.img");
+        assertTrue(fileSystem.save(image.toString()));
+
+        int block = LENGTH - 1;
+        flipByte(image, DiskImage.dataOffset(DiskImage.HEADER_SIZE, LENGTH) + (long) block * BLOCK_SIZE + 7);
+        try (var lazy = new LazyIOSystem(new MemoryIOSystem(LENGTH, BLOCK_SIZE), image)) {
+            var buffer = new UnsignedByteArray(BLOCK_SIZE);
+            lazy.readImageBlock(block - 1, buffer);
+            try {
+                lazy.readImageBlock(block, buffer);
+                fail("block " + block + " read without complaint");
+            } catch (IOException expected) {
+                // the checksum did not match
+            }
+        }
+    }
+
+    // a damaged header or an image of another geometry is refused, and the disk mounted before stays
+    @Test
+    public void badImageIsRefused() throws IOException {
+        var source = new FileSystem(LENGTH, BLOCK_SIZE);
+        populate(source);
+        Path image = directory.resolve("disk.img");
+        assertTrue(source.save(image.toString()));
+        flipByte(image, 12);
+
+        var fileSystem = new FileSystem(LENGTH, BLOCK_SIZE);
+        byte[] data = populate(fileSystem);
+        assertFalse(fileSystem.init(image.toString()));
+        assertEquals(Failure.IO_ERROR, fileSystem.lastFailure());
+
+        Path otherGeometry = directory.resolve("small.img");
+        assertTrue(new FileSystem(1024, BLOCK_SIZE).save(otherGeometry.toString()));
+        assertFalse(fileSystem.init(otherGeometry.toString()));
+        checkPopulated(fileSystem, data);
+    }
+
+    // a nested directory and a file spanning many blocks
+    private static byte[] populate(FileSystem fileSystem) {
+        byte[] data = new byte[20 * BLOCK_SIZE + 17];
+        new Random(3).nextBytes(data);
+        assertTrue(fileSystem.mkdir(new UnsignedByteArray("d")));
+        assertTrue(fileSystem.create(new UnsignedByteArray("d/data")));
+        assertTrue(fileSystem.create(new UnsignedByteArray("empty")));
+        int index = fileSystem.open(new UnsignedByteArray("d/data"));
+        assertEquals(data.length, fileSystem.write(index, UnsignedByteArray.wrap(data), data.length));
+        assertEquals(index, fileSystem.close(index));
+        return data;
+    }
+
+    private static void checkPopulated(FileSystem fileSystem, byte[] data) {
+        assertEquals(List.of("d/", "empty"), names(fileSystem.directory()));
+        int index = fileSystem.open(new UnsignedByteArray("d/data"));
+        assertTrue(index != -1);
+        var buffer = new UnsignedByteArray(data.length + 1);
+        assertEquals(data.length, fileSystem.read(index, buffer, buffer.length()));
+        byte[] read = new byte[data.length];
+        buffer.copyTo(0, read, 0, read.length);
+        assertArrayEquals(data, read);
+        fileSystem.close(index);
+    }
+
+    private static List<String> names(List<Pair<String, Integer>> listing) {
+        return listing.stream().map(Pair::getFirstValue).sorted().collect(Collectors.toList());
+    }
+
+    private static void flipByte(Path path, long position) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var b = ByteBuffer.allocate(1);
+            channel.read(b, position);
+            b.put(0, (byte) ~b.get(0));
+            channel.write(b.flip(), position);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import array.UnsignedByteArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// the devices that keep the disk in a plain file, blocking and asynchronous
+public class FileDeviceTest {
+    private static final int LENGTH = 256;
+    private static final int BLOCK_SIZE = 512;
+
+    private Path directory;
+    private Path image;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("file-device-test");
+        image = directory.resolve("disk.img");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void channelRoundTrip() throws IOException {
+        try (var device = new FileChannelIOSystem(image, LENGTH, BLOCK_SIZE)) {
+            roundTrip(device);
+        }
+        assertEquals((long) LENGTH * BLOCK_SIZE, Files.size(image));
+    }
+
+    @Test
+    public void asyncRoundTrip() throws IOException {
+        try (var device = new AsyncFileChannelIOSystem(image, LENGTH, BLOCK_SIZE)) {
+            roundTrip(device);
+        }
+        assertEquals((long) LENGTH * BLOCK_SIZE, Files.size(image));
+    }
+
+    // many runs in flight at once land where each was meant to
+    @Test
+    public void asyncRunsInFlight() throws IOException {
+        try (var device = new AsyncFileChannelIOSystem(image, LENGTH, BLOCK_SIZE)) {
+            var writes = new ArrayList<CompletableFuture<Void>>();
+            for (int first = 0; first < LENGTH; first += 8) {
+                writes.add(device.writeBlocksAsync(first, 8, run(first, 8)));
+            }
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+
+            var reads = new ArrayList<CompletableFuture<Void>>();
+            var buffers = new ArrayList<UnsignedByteArray>();
+            for (int first = 0; first < LENGTH; first += 16) {
+                var buffer = new UnsignedByteArray(16 * BLOCK_SIZE);
+                buffers.add(buffer);
+                reads.add(device.readBlocksAsync(first, 16, buffer));
+            }
+            CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).join();
+            for (int k = 0; k < buffers.size(); k++) {
+                assertEquals(run(k * 16, 16), buffers.get(k));
+            }
+        }
+    }
+
+    // a file of another size is another disk, and is left as it is
+    @Test
+    public void wrongSizeIsRejected() throws IOException {
+        Files.write(image, new byte[BLOCK_SIZE * 3]);
+        try (var device = new FileChannelIOSystem(image, LENGTH, BLOCK_SIZE)) {
+            fail("opened " + device);
+        } catch (IOException expected) {
+            // the size does not match
+        }
+        try (var device = new AsyncFileChannelIOSystem(image, LENGTH, BLOCK_SIZE)) {
+            fail("opened " + device);
+        } catch (IOException expected) {
+            // the size does not match
+        }
+        assertEquals(BLOCK_SIZE * 3, Files.size(image));
+    }
+
+    // a file system synced to either device mounts again from the file, whichever device reads it
+    @Test
+    public void fileSystemPersists() throws IOException {
+        try (var device = new AsyncFileChannelIOSystem(image, LENGTH, BLOCK_SIZE)) {
+            var fileSystem = new FileSystem(device);
+            write(fileSystem, "a", data(40 * BLOCK_SIZE, 1));
+            write(fileSystem, "b", data(700, 2));
+            fileSystem.sync();
+        }
+        try (var device = new FileChannelIOSystem(image, LENGTH, BLOCK_SIZE)) {
+            var fileSystem = new FileSystem(device);
+            check(fileSystem, "a", data(40 * BLOCK_SIZE, 1));
+            check(fileSystem, "b", data(700, 2));
+            write(fileSystem, "c", data(3000, 3));
+            fileSystem.sync();
+        }
+        try (var device = new AsyncFileChannelIOSystem(image, LENGTH, BLOCK_SIZE)) {
+            var fileSystem = new FileSystem(device);
+            check(fileSystem, "a", data(40 * BLOCK_SIZE, 1));
+            check(fileSystem, "c", data(3000, 3));
+        }
+    }
+
+    private static void roundTrip(IOSystem device) {
+        device.writeBlock(3, run(3, 1));
+        device.writeBlocks(10, 5, run(10, 5));
+
+        var block = new UnsignedByteArray(BLOCK_SIZE);
+        device.readBlock(3, block);
+        assertEquals(run(3, 1), block);
+        var blocks = new UnsignedByteArray(5 * BLOCK_SIZE);
+        device.readBlocks(10, 5, blocks);
+        assertEquals(run(10, 5), blocks);
+        device.readBlock(LENGTH - 1, block);
+        assertEquals(new UnsignedByteArray(BLOCK_SIZE), block);
+
+        int[] dirty = device.drainDirtyBlocks();
+        assertEquals(6, dirty.length);
+        assertEquals(3, dirty[0]);
+        assertEquals(14, dirty[5]);
+    }
+
+    private static void write(FileSystem fileSystem, String name, UnsignedByteArray data) {
+        assertTrue(fileSystem.create(new UnsignedByteArray(name)));
+        int index = fileSystem.open(new UnsignedByteArray(name));
+        assertEquals(data.length(), fileSystem.write(index, data, data.length()));
+        assertEquals(index, fileSystem.close(index));
+    }
+
+    private static void check(FileSystem fileSystem, String name, UnsignedByteArray data) {
+        int index = fileSystem.open(new UnsignedByteArray(name));
+        assertNotEquals(name, -1, index);
+        var read = new UnsignedByteArray(data.length() + 1);
+        assertEquals(name, data.length(), fileSystem.read(index, read, read.length()));
+        assertEquals(name, data, read.slice(0, data.length()));
+        assertEquals(index, fileSystem.close(index));
+    }
+
+    // count blocks from first, each filled from its own index
+    private static UnsignedByteArray run(int first, int count) {
+        var run = new UnsignedByteArray(count * BLOCK_SIZE);
+        for (int i = 0; i < run.length(); i++) {
+            run.set(i, ((first + i / BLOCK_SIZE) * 31 + i) & 0xFF);
+        }
+        return run;
+    }
+
+    private static UnsignedByteArray data(int length, int seed) {
+        var data = new UnsignedByteArray(length);
+        for (int i = 0; i < length; i++) {
+            data.set(i, (i * seed + i / 17) & 0xFF);
+        }
+        return data;
+    }
+}
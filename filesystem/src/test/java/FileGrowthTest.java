@@ -0,0 +1,80 @@
+import array.UnsignedByteArray;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileGrowthTest {
+    private static final int BLOCK_SIZE = 64;
+
+    @Test
+    public void filesWrittenInTurnKeepGrowing() {
+        var fileSystem = new FileSystem(4096, BLOCK_SIZE);
+        assertTrue(fileSystem.create(path("a")));
+        assertTrue(fileSystem.create(path("b")));
+        int a = fileSystem.open(path("a"));
+        int b = fileSystem.open(path("b"));
+
+        // a block each in turn used to take an extent slot per block, which ran out at 138 blocks
+        int rounds = 1000;
+        for (int k = 0; k < rounds; k++) {
+            assertEquals(BLOCK_SIZE, fileSystem.write(a, block(k), BLOCK_SIZE));
+            assertNull(fileSystem.lastFailure());
+            assertEquals(BLOCK_SIZE, fileSystem.write(b, block(-k), BLOCK_SIZE));
+            assertNull(fileSystem.lastFailure());
+        }
+
+        assertEquals(0, fileSystem.lseek(a, 0));
+        assertEquals(0, fileSystem.lseek(b, 0));
+        var read = new UnsignedByteArray(BLOCK_SIZE);
+        for (int k = 0; k < rounds; k++) {
+            assertEquals(BLOCK_SIZE, fileSystem.read(a, read, BLOCK_SIZE));
+            assertEquals(block(k), read);
+            assertEquals(BLOCK_SIZE, fileSystem.read(b, read, BLOCK_SIZE));
+            assertEquals(block(-k), read);
+        }
+    }
+
+    @Test
+    public void shortWritesSayWhy() {
+        var fileSystem = new FileSystem(2048, BLOCK_SIZE);
+        int files = 400;
+        for (int k = 0; k < files; k++) {
+            assertTrue(fileSystem.create(path("s" + k)));
+            int index = fileSystem.open(path("s" + k));
+            assertEquals(BLOCK_SIZE, fileSystem.write(index, block(k), BLOCK_SIZE));
+            assertEquals(index, fileSystem.close(index));
+        }
+
+        assertTrue(fileSystem.create(path("fill")));
+        int fill = fileSystem.open(path("fill"));
+        int count = 2048 * BLOCK_SIZE;
+        int written = fileSystem.write(fill, block(0), count);
+        assertTrue(written < count);
+        assertEquals(Failure.NO_SPACE, fileSystem.lastFailure());
+
+        // every other small file goes, leaving one-block holes that can only be mapped one extent each
+        for (int k = 1; k < files; k += 2) {
+            assertTrue(fileSystem.destroy(path("s" + k)));
+        }
+        assertTrue(fileSystem.create(path("big")));
+        int big = fileSystem.open(path("big"));
+        count = files / 2 * BLOCK_SIZE;
+        written = fileSystem.write(big, block(0), count);
+        assertTrue(written > 0 && written < count);
+        assertEquals(Failure.FILE_TOO_LARGE, fileSystem.lastFailure());
+    }
+
+    private static UnsignedByteArray path(String name) {
+        return new UnsignedByteArray(name);
+    }
+
+    private static UnsignedByteArray block(int seed) {
+        var block = new UnsignedByteArray(BLOCK_SIZE);
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            block.set(i, (seed * 31 + i) & 0xFF);
+        }
+        return block;
+    }
+}
@@ -0,0 +1,161 @@
+import array.UnsignedByteArray;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Random creates, destroys, opens, closes, writes, reads and seeks, each checked against files kept in byte arrays
+public class FileSystemModelTest {
+    private static final int LENGTH = 2048;
+    private static final int BLOCK_SIZE = 64;
+    private static final String[] NAMES = {"a", "b", "c", "d", "e", "f"};
+
+    @Test
+    public void writeBack() {
+        for (long seed = 1; seed <= 3; seed++) {
+            run(seed, new FileSystem(new MemoryIOSystem(LENGTH, BLOCK_SIZE)));
+        }
+    }
+
+    @Test
+    public void writeThrough() {
+        run(4, new FileSystem(new MemoryIOSystem(LENGTH, BLOCK_SIZE), true));
+    }
+
+    // a cache of two blocks evicts on nearly every access
+    @Test
+    public void tinyCache() {
+        run(5, new FileSystem(new MemoryIOSystem(LENGTH, BLOCK_SIZE), false, 16, 2));
+    }
+
+    private void run(long seed, FileSystem fileSystem) {
+        var random = new Random(seed);
+        var model = new Model();
+
+        for (int step = 0; step < 10000; step++) {
+            String name = NAMES[random.nextInt(NAMES.length)];
+            int operation = random.nextInt(10);
+            String at = "seed " + seed + " step " + step;
+            if (operation == 0) {
+                boolean created = fileSystem.create(new UnsignedByteArray(name));
+                assertEquals(at, !model.files.containsKey(name), created);
+                if (created) {
+                    model.files.put(name, new byte[0]);
+                }
+            } else if (operation == 1) {
+                boolean destroyed = fileSystem.destroy(new UnsignedByteArray(name));
+                assertEquals(at, model.files.containsKey(name) && !model.isOpen(name), destroyed);
+                if (destroyed) {
+                    model.files.remove(name);
+                }
+            } else if (operation == 2) {
+                int index = fileSystem.open(new UnsignedByteArray(name));
+                assertEquals(at, model.files.containsKey(name) && !model.isOpen(name), index != -1);
+                if (index != -1) {
+                    model.handles.put(index, name);
+                    model.positions.put(index, 0);
+                }
+            } else if (!model.handles.isEmpty()) {
+                var indexes = new ArrayList<>(model.handles.keySet());
+                int index = indexes.get(random.nextInt(indexes.size()));
+                if (operation == 3) {
+                    assertEquals(at, index, fileSystem.close(index));
+                    model.handles.remove(index);
+                    model.positions.remove(index);
+                } else if (operation <= 6) {
+                    write(fileSystem, model, index, random, at);
+                } else if (operation <= 8) {
+                    read(fileSystem, model, index, random, at);
+                } else {
+                    int position = random.nextInt(model.file(index).length + 1);
+                    assertEquals(at, position, fileSystem.lseek(index, position));
+                    model.positions.put(index, position);
+                }
+            }
+
+            if (step % 1000 == 999) {
+                checkListing(fileSystem, model, at);
+            }
+        }
+
+        for (int index : model.handles.keySet()) {
+            fileSystem.close(index);
+        }
+        model.handles.clear();
+        checkListing(fileSystem, model, "seed " + seed + " at the end");
+    }
+
+    private static void write(FileSystem fileSystem, Model model, int index, Random random, String at) {
+        byte[] data = new byte[random.nextInt(300)];
+        random.nextBytes(data);
+        int position = model.positions.get(index);
+        int written = fileSystem.write(index, UnsignedByteArray.wrap(data), data.length);
+        // a write cut short says why, and the model keeps what was written
+        assertTrue(at, written >= 0 && written <= data.length);
+        if (written < data.length) {
+            Failure failure = fileSystem.lastFailure();
+            assertTrue(at + " " + failure, failure == Failure.NO_SPACE || failure == Failure.FILE_TOO_LARGE);
+        } else {
+            assertNull(at, fileSystem.lastFailure());
+        }
+
+        byte[] file = model.file(index);
+        if (position + written > file.length) {
+            file = Arrays.copyOf(file, position + written);
+            model.files.put(model.handles.get(index), file);
+        }
+        System.arraycopy(data, 0, file, position, written);
+        model.positions.put(index, position + written);
+    }
+
+    private static void read(FileSystem fileSystem, Model model, int index, Random random, String at) {
+        int count = random.nextInt(300);
+        int position = model.positions.get(index);
+        byte[] file = model.file(index);
+        var buffer = new UnsignedByteArray(count);
+        int read = fileSystem.read(index, buffer, count);
+        assertEquals(at, Math.min(count, file.length - position), read);
+
+        byte[] expected = Arrays.copyOfRange(file, position, position + read);
+        byte[] actual = new byte[read];
+        buffer.copyTo(0, actual, 0, read);
+        assertArrayEquals(at, expected, actual);
+        model.positions.put(index, position + read);
+    }
+
+    // an open file's length reaches its descriptor only when it is closed
+    private static void checkListing(FileSystem fileSystem, Model model, String at) {
+        List<Pair<String, Integer>> listing = fileSystem.directory();
+        assertEquals(at, model.files.size(), listing.size());
+        for (var entry : listing) {
+            String name = entry.getFirstValue();
+            assertTrue(at + " lists " + name, model.files.containsKey(name));
+            if (!model.isOpen(name)) {
+                assertEquals(at + " length of " + name, model.files.get(name).length, (int) entry.getSecondValue());
+            }
+        }
+    }
+
+    private static class Model {
+        final Map<String, byte[]> files = new HashMap<>();
+        final Map<Integer, String> handles = new HashMap<>();
+        final Map<Integer, Integer> positions = new HashMap<>();
+
+        byte[] file(int index) {
+            return files.get(handles.get(index));
+        }
+
+        boolean isOpen(String name) {
+            return handles.containsValue(name);
+        }
+    }
+}
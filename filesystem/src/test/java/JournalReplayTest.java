@@ -0,0 +1,186 @@
+import array.UnsignedByteArray;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+// The device stops taking writes at a random point while files are being created, rewritten and destroyed.
+// Mounting what reached it has to replay the journal into metadata that agrees with itself, and keep every
+// file that was synced before
+public class JournalReplayTest {
+    private static final int LENGTH = 3000;
+    private static final int BLOCK_SIZE = 64;
+    private static final int RUNS = 100;
+
+    @Test
+    public void writeBack() {
+        for (int run = 0; run < RUNS; run++) {
+            crashAndMount(run, false);
+        }
+    }
+
+    @Test
+    public void writeThrough() {
+        for (int run = 0; run < RUNS; run++) {
+            crashAndMount(run, true);
+        }
+    }
+
+    private void crashAndMount(int run, boolean writeThrough) {
+        var random = new Random(run);
+        var disk = new MemoryIOSystem(LENGTH, BLOCK_SIZE);
+        var dying = new DyingIOSystem(disk);
+        var fileSystem = new FileSystem(dying, writeThrough, 16, 32);
+
+        Map<String, byte[]> synced = new HashMap<>();
+        for (int i = 0; i < 4; i++) {
+            byte[] data = new byte[random.nextInt(3000)];
+            random.nextBytes(data);
+            String name = "s" + i;
+            fileSystem.create(new UnsignedByteArray(name));
+            int index = fileSystem.open(new UnsignedByteArray(name));
+            fileSystem.write(index, UnsignedByteArray.wrap(data), data.length);
+            fileSystem.close(index);
+            synced.put(name, data);
+        }
+        fileSystem.sync();
+
+        dying.writesLeft = random.nextInt(400);
+        try {
+            for (int step = 0; step < 200; step++) {
+                var name = new UnsignedByteArray("t" + random.nextInt(6));
+                int operation = random.nextInt(4);
+                if (operation == 0) {
+                    fileSystem.create(name);
+                } else if (operation == 1) {
+                    fileSystem.destroy(name);
+                } else {
+                    int index = fileSystem.open(name);
+                    if (index != -1) {
+                        byte[] data = new byte[random.nextInt(2000)];
+                        random.nextBytes(data);
+                        fileSystem.write(index, UnsignedByteArray.wrap(data), data.length);
+                        fileSystem.close(index);
+                    }
+                }
+                if (random.nextInt(30) == 0) {
+                    fileSystem.sync();
+                }
+            }
+        } catch (IllegalStateException crashed) {
+            // whatever the cache held is gone
+        }
+
+        var mounted = new FileSystem(disk, writeThrough, 16, 32);
+        for (var file : synced.entrySet()) {
+            int index = mounted.open(new UnsignedByteArray(file.getKey()));
+            assertNotEquals("run " + run + " lost " + file.getKey(), -1, index);
+            var buffer = new UnsignedByteArray(file.getValue().length + 1);
+            int read = mounted.read(index, buffer, buffer.length());
+            byte[] data = new byte[read];
+            buffer.copyTo(0, data, 0, read);
+            assertArrayEquals("run " + run + " " + file.getKey(), file.getValue(), data);
+            mounted.close(index);
+        }
+        mounted.sync();
+        checkBlocks(run, disk);
+    }
+
+    // with write-through every operation commits, and each commit forces the device once
+    @Test
+    public void commitForcesOnce() {
+        var dying = new DyingIOSystem(new MemoryIOSystem(LENGTH, BLOCK_SIZE));
+        var fileSystem = new FileSystem(dying, true, 16, 32);
+        int flushes = dying.flushes;
+        assertTrue(fileSystem.create(new UnsignedByteArray("a")));
+        assertTrue(fileSystem.mkdir(new UnsignedByteArray("d")));
+        assertTrue(fileSystem.destroy(new UnsignedByteArray("a")));
+        assertEquals(3, dying.flushes - flushes);
+    }
+
+    // every block is either free or used by exactly one live file
+    private static void checkBlocks(int run, IOSystem disk) {
+        var superblock = new Superblock(disk);
+        assertTrue(superblock.read());
+        var bitmap = new Bitmap(disk, superblock);
+        var descriptorTable = new DescriptorTable(disk, superblock, true);
+        var blockMap = new BlockMap(disk, bitmap, descriptorTable);
+        var directory = new Directory(disk, blockMap, descriptorTable);
+
+        Set<Integer> live = new HashSet<>();
+        live.add(0);
+        directory.spliterator(0, new ReentrantLock())
+                .forEachRemaining(entry -> live.add(entry.getDescriptorIndex()));
+
+        Set<Integer> used = new HashSet<>();
+        var extent = new Extent();
+        for (int descriptorIndex : live) {
+            for (int b = 0; b < descriptorTable.getBlockCount(descriptorIndex); b++) {
+                assertTrue(blockMap.find(descriptorIndex, b, extent));
+                assertTrue("run " + run + " shares block", used.add(extent.getBlockIndex(b)));
+            }
+            int indirect = descriptorTable.getIndirectBlock(descriptorIndex);
+            if (indirect != 0) {
+                assertTrue("run " + run + " shares block", used.add(indirect));
+            }
+            assertEquals(0, descriptorTable.getDoubleIndirectBlock(descriptorIndex));
+        }
+        assertEquals("run " + run + " blocks in use and free",
+                superblock.getBlockCount() - superblock.getFirstDataBlock(), used.size() + bitmap.getFreeBlockCount());
+    }
+
+    // a disk that loses power after a number of block writes. Writes after that are lost; the thread that made
+    // the disk is told so it stops, the cache's own threads writing back in the background are not
+    private static class DyingIOSystem extends IOSystem {
+        private final IOSystem disk;
+        private final Thread owner;
+        private volatile int writesLeft = Integer.MAX_VALUE;
+        private int flushes;
+
+        DyingIOSystem(IOSystem disk) {
+            this.disk = disk;
+            this.owner = Thread.currentThread();
+        }
+
+        @Override
+        public void readBlock(int i, UnsignedByteArray p) {
+            disk.readBlock(i, p);
+        }
+
+        @Override
+        public synchronized void writeBlock(int i, UnsignedByteArray p) {
+            if (writesLeft <= 0) {
+                if (Thread.currentThread() == owner) {
+                    throw new IllegalStateException("power lost");
+                }
+                return;
+            }
+            writesLeft--;
+            disk.writeBlock(i, p);
+        }
+
+        @Override
+        public synchronized void flush() {
+            flushes++;
+        }
+
+        @Override
+        public int getLength() {
+            return disk.getLength();
+        }
+
+        @Override
+        public int getBlockSize() {
+            return disk.getBlockSize();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import array.UnsignedByteArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LazyInitTest {
+    private static final int LENGTH = 2048;
+    private static final int BLOCK_SIZE = 512;
+    private static final int FILE_LENGTH = 200 * BLOCK_SIZE;
+
+    private Path directory;
+    private String image;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("lazy-init-test");
+        image = directory.resolve("disk.img").toString();
+        var fileSystem = new FileSystem(LENGTH, BLOCK_SIZE);
+        write(fileSystem, "a", data(FILE_LENGTH, 1));
+        write(fileSystem, "b", data(1000, 2));
+        assertTrue(fileSystem.save(image));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // init puts little on the disk; a block comes in from the image when it is first read
+    @Test
+    public void blocksComeInWhenUsed() {
+        var disk = new CountingIOSystem(LENGTH, BLOCK_SIZE);
+        var fileSystem = new FileSystem(disk);
+        disk.blocksWritten = 0;
+        assertTrue(fileSystem.init(image));
+        int atInit = disk.blocksWritten;
+        assertTrue("init wrote " + atInit, atInit < FILE_LENGTH / BLOCK_SIZE);
+
+        check(fileSystem, "b", data(1000, 2));
+        check(fileSystem, "a", data(FILE_LENGTH, 1));
+        assertTrue(disk.blocksWritten >= atInit + FILE_LENGTH / BLOCK_SIZE);
+    }
+
+    // a block written whole before it is read never needs the image's copy
+    @Test
+    public void overwriteBeforeRead() {
+        var fileSystem = new FileSystem(LENGTH, BLOCK_SIZE);
+        assertTrue(fileSystem.init(image));
+        int index = fileSystem.open(path("a"));
+        assertEquals(BLOCK_SIZE, fileSystem.lseek(index, BLOCK_SIZE));
+        assertEquals(BLOCK_SIZE, fileSystem.write(index, data(BLOCK_SIZE, 9), BLOCK_SIZE));
+        assertEquals(index, fileSystem.close(index));
+
+        var expected = data(FILE_LENGTH, 1);
+        data(BLOCK_SIZE, 9).copyTo(0, expected, BLOCK_SIZE, BLOCK_SIZE);
+        check(fileSystem, "a", expected);
+    }
+
+    // sync brings in every block, after which the image is not needed and the disk mounts on its own
+    @Test
+    public void syncLoadsEverything() throws IOException {
+        var disk = new MemoryIOSystem(LENGTH, BLOCK_SIZE);
+        var fileSystem = new FileSystem(disk);
+        assertTrue(fileSystem.init(image));
+        fileSystem.sync();
+        Files.delete(Path.of(image));
+
+        check(fileSystem, "a", data(FILE_LENGTH, 1));
+        var mounted = new FileSystem(disk);
+        check(mounted, "a", data(FILE_LENGTH, 1));
+        check(mounted, "b", data(1000, 2));
+    }
+
+    // saving over the image still being read from loads the rest of it first
+    @Test
+    public void saveOverOwnImage() {
+        var fileSystem = new FileSystem(LENGTH, BLOCK_SIZE);
+        assertTrue(fileSystem.init(image));
+        write(fileSystem, "c", data(300, 3));
+        assertTrue(fileSystem.save(image));
+
+        var restored = new FileSystem(LENGTH, BLOCK_SIZE);
+        assertTrue(restored.init(image));
+        check(restored, "a", data(FILE_LENGTH, 1));
+        check(restored, "c", data(300, 3));
+    }
+
+    // an image that cannot be read leaves what is mounted as it was
+    @Test
+    public void failedInitKeepsMount() {
+        var fileSystem = new FileSystem(LENGTH, BLOCK_SIZE);
+        write(fileSystem, "x", data(800, 4));
+        assertFalse(fileSystem.init(directory.resolve("missing.img").toString()));
+        assertEquals(Failure.IO_ERROR, fileSystem.lastFailure());
+        check(fileSystem, "x", data(800, 4));
+    }
+
+    private static void write(FileSystem fileSystem, String name, UnsignedByteArray data) {
+        assertTrue(fileSystem.create(path(name)));
+        int index = fileSystem.open(path(name));
+        assertEquals(data.length(), fileSystem.write(index, data, data.length()));
+        assertEquals(index, fileSystem.close(index));
+    }
+
+    private static void check(FileSystem fileSystem, String name, UnsignedByteArray data) {
+        int index = fileSystem.open(path(name));
+        assertNotEquals(name, -1, index);
+        var read = new UnsignedByteArray(data.length() + 1);
+        assertEquals(name, data.length(), fileSystem.read(index, read, read.length()));
+        assertEquals(name, data, read.slice(0, data.length()));
+        assertEquals(index, fileSystem.close(index));
+    }
+
+    private static UnsignedByteArray path(String name) {
+        return new UnsignedByteArray(name);
+    }
+
+    private static UnsignedByteArray data(int length, int seed) {
+        var data = new UnsignedByteArray(length);
+        for (int i = 0; i < length; i++) {
+            data.set(i, (i * seed + i / 13) & 0xFF);
+        }
+        return data;
+    }
+
+    private static class CountingIOSystem extends MemoryIOSystem {
+        private int blocksWritten;
+
+        CountingIOSystem(int length, int blockSize) {
+            super(length, blockSize);
+        }
+
+        @Override
+        public synchronized void writeBlock(int i, UnsignedByteArray p) {
+            blocksWritten++;
+            super.writeBlock(i, p);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import array.UnsignedByteArray;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PositionalIOTest {
+    private static final int LENGTH = 2048;
+    private static final int BLOCK_SIZE = 512;
+
+    @Test
+    public void positionStays() {
+        var fileSystem = new FileSystem(LENGTH, BLOCK_SIZE);
+        int index = openNew(fileSystem, "f");
+        byte[] data = bytes(3000, 1);
+        assertEquals(data.length, fileSystem.write(index, UnsignedByteArray.wrap(data), data.length));
+        assertEquals(100, fileSystem.lseek(index, 100));
+
+        assertEquals(3, fileSystem.pwrite(index, new UnsignedByteArray("xyz"), 3, 1500));
+        var read = new UnsignedByteArray(5);
+        assertEquals(5, fileSystem.pread(index, read, 5, 1499));
+        assertEquals(data[1499], (byte) read.get(0));
+        assertEquals(new UnsignedByteArray("xyz"), read.slice(1, 4));
+        assertEquals(data[1503], (byte) read.get(4));
+
+        // the end of the file is a valid place to write, and the file grows; past it is not
+        assertEquals(4, fileSystem.pwrite(index, new UnsignedByteArray("tail"), 4, data.length));
+        assertEquals(-1, fileSystem.pwrite(index, new UnsignedByteArray("gap"), 3, data.length + 5));
+        assertEquals(Failure.POSITION_OUT_OF_RANGE, fileSystem.lastFailure());
+        assertEquals(-1, fileSystem.pread(index, read, 5, -1));
+        assertEquals(Failure.POSITION_OUT_OF_RANGE, fileSystem.lastFailure());
+        assertEquals(2, fileSystem.pread(index, read, 5, data.length + 2));
+
+        // none of it moved the position
+        assertEquals(5, fileSystem.read(index, read, 5));
+        for (int k = 0; k < 5; k++) {
+            assertEquals(data[100 + k], (byte) read.get(k));
+        }
+    }
+
+    @Test
+    public void vectors() {
+        var fileSystem = new FileSystem(LENGTH, BLOCK_SIZE);
+        int index = openNew(fileSystem, "f");
+        byte[] data = bytes(1300, 2);
+        var areas = new UnsignedByteArray[] {
+                UnsignedByteArray.wrap(data, 0, 10), UnsignedByteArray.wrap(data, 10, 700),
+                UnsignedByteArray.wrap(data, 710, 590)};
+        assertEquals(data.length, fileSystem.writev(index, areas));
+
+        // the areas fill in turn, and the one the file ends in is the last
+        assertEquals(0, fileSystem.lseek(index, 0));
+        var first = new UnsignedByteArray(600);
+        var second = new UnsignedByteArray(1000);
+        var third = new UnsignedByteArray(10);
+        assertEquals(data.length, fileSystem.readv(index, new UnsignedByteArray[] {first, second, third}));
+        assertEquals(UnsignedByteArray.wrap(data, 0, 600), first);
+        assertEquals(UnsignedByteArray.wrap(data, 600, 700), second.slice(0, 700));
+        assertEquals(new UnsignedByteArray(10), third);
+        assertEquals(0, fileSystem.read(index, third, 10));
+    }
+
+    // preads elsewhere in the file while a reader goes through it in order do not stop its read-ahead
+    @Test
+    public void preadKeepsReadAhead() {
+        var disk = new CountingIOSystem(LENGTH, BLOCK_SIZE);
+        int blocks = 64;
+        var fileSystem = new FileSystem(disk);
+        int index = openNew(fileSystem, "f");
+        byte[] data = bytes(blocks * BLOCK_SIZE, 3);
+        assertEquals(data.length, fileSystem.write(index, UnsignedByteArray.wrap(data), data.length));
+        assertEquals(index, fileSystem.close(index));
+        fileSystem.sync();
+
+        fileSystem = new FileSystem(disk, false, 16, 256);
+        index = fileSystem.open(new UnsignedByteArray("f"));
+        disk.runReads.set(0);
+        var read = new UnsignedByteArray(BLOCK_SIZE);
+        var other = new UnsignedByteArray(1);
+        for (int b = 0; b < blocks; b++) {
+            assertEquals(1, fileSystem.pread(index, other, 1, (blocks - 1 - b) * BLOCK_SIZE));
+            assertEquals(BLOCK_SIZE, fileSystem.read(index, read, BLOCK_SIZE));
+            assertEquals(UnsignedByteArray.wrap(data, b * BLOCK_SIZE, BLOCK_SIZE), read);
+        }
+        assertTrue(disk.runReads.get() > 0);
+    }
+
+    private static int openNew(FileSystem fileSystem, String name) {
+        assertTrue(fileSystem.create(new UnsignedByteArray(name)));
+        return fileSystem.open(new UnsignedByteArray(name));
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * seed + i / 7);
+        }
+        return bytes;
+    }
+
+    // a slow disk for single blocks, so the cache's background prefetch gets there before the reader does
+    private static class CountingIOSystem extends MemoryIOSystem {
+        // reads of more than one block at a time, which only prefetching makes
+        private final AtomicInteger runReads = new AtomicInteger();
+
+        CountingIOSystem(int length, int blockSize) {
+            super(length, blockSize);
+        }
+
+        @Override
+        public void readBlock(int i, UnsignedByteArray p) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.readBlock(i, p);
+        }
+
+        @Override
+        public void readBlocks(int first, int count, UnsignedByteArray p) {
+            if (count > 1) {
+                runReads.incrementAndGet();
+            }
+            super.readBlocks(first, count, p);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import array.UnsignedByteArray;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// read-ahead and write-behind run on the cache's background threads, so these wait for them rather than assume
+public class SequentialAccessTest {
+    private static final int LENGTH = 2048;
+    private static final int BLOCK_SIZE = 512;
+    private static final int FILE_BLOCKS = 64;
+    private static final long WAIT_MILLIS = 5000;
+
+    // a reader going through the file in order gets the blocks ahead of it with multi-block device reads
+    @Test
+    public void sequentialReadPrefetches() {
+        var disk = new CountingIOSystem(LENGTH, BLOCK_SIZE);
+        writeFile(disk);
+
+        var fileSystem = new FileSystem(disk, false, 16, 256);
+        int index = fileSystem.open(new UnsignedByteArray("f"));
+        disk.runReads.set(0);
+        var read = new UnsignedByteArray(BLOCK_SIZE);
+        for (int b = 0; b < FILE_BLOCKS; b++) {
+            assertEquals(BLOCK_SIZE, fileSystem.read(index, read, BLOCK_SIZE));
+            assertEquals("block " + b, block(b), read);
+        }
+        assertTrue(disk.runReads.get() > 0);
+    }
+
+    // reads out of order are left alone, so they cost no more than the blocks they ask for
+    @Test
+    public void randomReadDoesNotPrefetch() {
+        var disk = new CountingIOSystem(LENGTH, BLOCK_SIZE);
+        writeFile(disk);
+
+        var fileSystem = new FileSystem(disk, false, 16, 256);
+        int index = fileSystem.open(new UnsignedByteArray("f"));
+        disk.runReads.set(0);
+        var read = new UnsignedByteArray(BLOCK_SIZE);
+        for (int b = FILE_BLOCKS - 1; b >= 0; b -= 2) {
+            assertEquals(b * BLOCK_SIZE, fileSystem.lseek(index, b * BLOCK_SIZE));
+            assertEquals(BLOCK_SIZE, fileSystem.read(index, read, BLOCK_SIZE));
+            assertEquals("block " + b, block(b), read);
+        }
+        assertEquals(0, disk.runReads.get());
+    }
+
+    // a sequential writer's full blocks reach the device before anything flushes them
+    @Test
+    public void sequentialWriteWritesBehind() throws InterruptedException {
+        var disk = new CountingIOSystem(LENGTH, BLOCK_SIZE);
+        var fileSystem = new FileSystem(disk, false, 16, 256);
+        assertTrue(fileSystem.create(new UnsignedByteArray("f")));
+        int index = fileSystem.open(new UnsignedByteArray("f"));
+        disk.blocksWritten.set(0);
+        for (int b = 0; b < FILE_BLOCKS; b++) {
+            assertEquals(BLOCK_SIZE, fileSystem.write(index, block(b), BLOCK_SIZE));
+        }
+
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (disk.blocksWritten.get() < FILE_BLOCKS / 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("written " + disk.blocksWritten.get(), disk.blocksWritten.get() >= FILE_BLOCKS / 2);
+    }
+
+    private static void writeFile(IOSystem disk) {
+        var fileSystem = new FileSystem(disk);
+        assertTrue(fileSystem.create(new UnsignedByteArray("f")));
+        int index = fileSystem.open(new UnsignedByteArray("f"));
+        for (int b = 0; b < FILE_BLOCKS; b++) {
+            assertEquals(BLOCK_SIZE, fileSystem.write(index, block(b), BLOCK_SIZE));
+        }
+        assertEquals(index, fileSystem.close(index));
+        fileSystem.sync();
+    }
+
+    private static UnsignedByteArray block(int seed) {
+        var block = new UnsignedByteArray(BLOCK_SIZE);
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            block.set(i, (seed * 13 + i) & 0xFF);
+        }
+        return block;
+    }
+
+    // a slow disk for single blocks, so the cache's background prefetch gets there before the reader does
+    private static class CountingIOSystem extends MemoryIOSystem {
+        // reads of more than one block at a time, which only prefetching makes
+        private final AtomicInteger runReads = new AtomicInteger();
+        private final AtomicInteger blocksWritten = new AtomicInteger();
+
+        CountingIOSystem(int length, int blockSize) {
+            super(length, blockSize);
+        }
+
+        @Override
+        public void readBlock(int i, UnsignedByteArray p) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.readBlock(i, p);
+        }
+
+        @Override
+        public void readBlocks(int first, int count, UnsignedByteArray p) {
+            if (count > 1) {
+                runReads.incrementAndGet();
+            }
+            super.readBlocks(first, count, p);
+        }
+
+        @Override
+        public void writeBlock(int i, UnsignedByteArray p) {
+            blocksWritten.incrementAndGet();
+            super.writeBlock(i, p);
+        }
+
+        @Override
+        public void writeBlocks(int first, int count, UnsignedByteArray p) {
+            blocksWritten.addAndGet(count);
+            super.writeBlocks(first, count, p);
+        }
+    }
+}